@@ -1,21 +1,29 @@
 package configs;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.Objects;
 import java.util.function.BinaryOperator;
 
-import graph.Agent;
+import graph.ColumnarAgent;
+import graph.GraphContext;
 import graph.Message;
-import graph.TopicManagerSingleton;
+import graph.Topic;
 
 /**
  * The BinOpAgent class implements the Agent interface and performs binary operations on messages received from two input topics.
  */
-public class BinOpAgent implements Agent {
+public class BinOpAgent implements ColumnarAgent {
 	private final String name;
 	private final String inputTopic1;
 	private final String inputTopic2;
 	private final String outputTopic;
 	private final BinaryOperator<Double> operation;
+	private final boolean deterministic;
+	private final Topic xTopic;
+	private final Topic yTopic;
+	private final Topic outTopic;
 	private Double x;
 	private Double y;
 
@@ -29,16 +37,53 @@ public class BinOpAgent implements Agent {
 	 * @param operation the binary operation to be performed on the input values
 	 */
 	public BinOpAgent(String name, String inputTopic1, String inputTopic2, String outputTopic, BinaryOperator<Double> operation) {
+		this(GraphContext.getDefault(), name, inputTopic1, inputTopic2, outputTopic, operation);
+	}
+
+	/**
+	 * Constructs a BinOpAgent on the topics of the given graph context.
+	 *
+	 * @param context the graph the topics belong to
+	 * @param name the name of the agent
+	 * @param inputTopic1 the first input topic
+	 * @param inputTopic2 the second input topic
+	 * @param outputTopic the output topic
+	 * @param operation the binary operation to be performed on the input values
+	 */
+	public BinOpAgent(GraphContext context, String name, String inputTopic1, String inputTopic2, String outputTopic,
+			BinaryOperator<Double> operation) {
+		this(context, name, inputTopic1, inputTopic2, outputTopic, operation, false);
+	}
+
+	/**
+	 * Constructs a BinOpAgent on the topics of the given graph context, stating whether the operation is a pure
+	 * function of its inputs, so the agent may be memoized.
+	 *
+	 * @param context the graph the topics belong to
+	 * @param name the name of the agent
+	 * @param inputTopic1 the first input topic
+	 * @param inputTopic2 the second input topic
+	 * @param outputTopic the output topic
+	 * @param operation the binary operation to be performed on the input values
+	 * @param deterministic true if the operation always returns the same result for the same inputs
+	 */
+	public BinOpAgent(GraphContext context, String name, String inputTopic1, String inputTopic2, String outputTopic,
+			BinaryOperator<Double> operation, boolean deterministic) {
 		this.name = name;
 		this.inputTopic1 = inputTopic1;
 		this.inputTopic2 = inputTopic2;
 		this.outputTopic = outputTopic;
 		this.operation = operation;
+		this.deterministic = deterministic;
 
-		TopicManagerSingleton.get().getTopic(inputTopic1).subscribe(this);
-		TopicManagerSingleton.get().getTopic(inputTopic2).subscribe(this);
-		TopicManagerSingleton.get().getTopic(this.outputTopic);
-		TopicManagerSingleton.get().getTopic(this.outputTopic).addPublisher(this);
+		// Resolve the topic handles once, so callbacks dispatch on identity instead of names
+		this.xTopic = context.getTopic(inputTopic1);
+		this.yTopic = context.getTopic(inputTopic2);
+		this.outTopic = context.getTopic(this.outputTopic);
+
+		xTopic.subscribe(this);
+		yTopic.subscribe(this);
+		outTopic.addPublisher(this);
 	}
 
 	/**
@@ -69,18 +114,166 @@ public class BinOpAgent implements Agent {
 	 */
 	@Override
 	public void callback(String topic, Message msg) {
+		update(topic, msg);
+		publishResult();
+	}
+
+	/**
+	 * Callback method that is invoked with the handle of the topic on which a message was received.
+	 *
+	 * @param topic the topic on which the message was received
+	 * @param msg the message received
+	 */
+	@Override
+	public void callback(Topic topic, Message msg) {
+		update(topic, msg);
+		publishResult();
+	}
+
+	/**
+	 * Applies a whole burst of messages and performs the operation once on the final input values.
+	 *
+	 * @param topics the topics on which the messages were received
+	 * @param msgs the messages received
+	 * @param count the number of messages in the burst
+	 */
+	@Override
+	public void callbackBatch(Topic[] topics, Message[] msgs, int count) {
+		for (int i = 0; i < count; i++) {
+			update(topics[i], msgs[i]);
+		}
+		publishResult();
+	}
+
+	/**
+	 * Stores the value of a message received on one of the input topics.
+	 *
+	 * @param topic the topic on which the message was received
+	 * @param msg the message received
+	 */
+	private void update(String topic, Message msg) {
 		if (Objects.equals(topic, inputTopic1)) {
 			this.x = msg.asDouble;
 		}
 		if (Objects.equals(topic, inputTopic2)) {
 			this.y = msg.asDouble;
 		}
+	}
+
+	/**
+	 * Stores the value of a message received on one of the input topic handles.
+	 *
+	 * @param topic the topic on which the message was received
+	 * @param msg the message received
+	 */
+	private void update(Topic topic, Message msg) {
+		if (topic == xTopic) {
+			this.x = msg.asDouble;
+		}
+		if (topic == yTopic) {
+			this.y = msg.asDouble;
+		}
+	}
+
+	/**
+	 * Performs the binary operation and publishes the result once both input values are available.
+	 */
+	private void publishResult() {
 		if (x != null && y != null) {
 			Double result = this.operation.apply(x, y);
-			TopicManagerSingleton.get().getTopic(this.outputTopic).publish(new Message(result));
+			outTopic.publish(new Message(result));
+		}
+	}
+
+	/**
+	 * Returns the input topics in the order the column kernel reads them.
+	 *
+	 * @return the input topics
+	 */
+	@Override
+	public Topic[] getInputTopics() {
+		return new Topic[] {xTopic, yTopic};
+	}
+
+	/**
+	 * Returns the output topic written by the column kernel.
+	 *
+	 * @return the output topic
+	 */
+	@Override
+	public Topic[] getOutputTopics() {
+		return new Topic[] {outTopic};
+	}
+
+	/**
+	 * Applies the operation row by row. The operation works on boxed values, so unlike the fixed
+	 * arithmetic agents this loop cannot be vectorized.
+	 *
+	 * @param inputs the input columns
+	 * @param outputs the output column to fill
+	 * @param length the number of rows
+	 */
+	@Override
+	public void evaluateColumns(double[][] inputs, double[][] outputs, int length) {
+		double[] x = inputs[0];
+		double[] y = inputs[1];
+		double[] out = outputs[0];
+		for (int i = 0; i < length; i++) {
+			out[i] = operation.apply(x[i], y[i]);
 		}
 	}
 
+	/**
+	 * Returns the operation as a scalar kernel, for fusing the agent into a compiled graph.
+	 * The operation works on boxed values, so the handle converts between double and Double.
+	 *
+	 * @return the kernel handle
+	 */
+	@Override
+	public MethodHandle getScalarKernel() {
+		try {
+			MethodHandle apply = MethodHandles.publicLookup().findVirtual(BinaryOperator.class, "apply",
+					MethodType.methodType(Object.class, Object.class, Object.class));
+			return apply.bindTo(operation).asType(MethodType.methodType(double.class, double.class, double.class));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the latest values of both inputs; an input not received yet is saved as NaN.
+	 *
+	 * @return the state {x, y}
+	 */
+	@Override
+	public double[] getState() {
+		return new double[] {x == null ? Double.NaN : x, y == null ? Double.NaN : y};
+	}
+
+	/**
+	 * Restores the latest values of both inputs; NaN marks an input not received yet.
+	 *
+	 * @param state the state {x, y}
+	 */
+	@Override
+	public void setState(double[] state) {
+		if (state != null && state.length == 2) {
+			this.x = Double.isNaN(state[0]) ? null : state[0];
+			this.y = Double.isNaN(state[1]) ? null : state[1];
+		}
+	}
+
+	/**
+	 * Returns whether the operation was declared a pure function when the agent was created; an arbitrary
+	 * operation may keep state or read the clock, so it is not assumed to be one.
+	 *
+	 * @return true if the published result depends only on the latest input values
+	 */
+	@Override
+	public boolean isDeterministic() {
+		return deterministic;
+	}
+
 	/**
 	 * Closes the agent and releases any resources held by it.
 	 */
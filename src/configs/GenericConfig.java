@@ -1,23 +1,53 @@
 package configs;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.lang.reflect.InvocationTargetException;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
 
 import graph.Agent;
+import graph.AgentSettings;
+import graph.Checkpoint;
+import graph.ColumnarAgent;
+import graph.ColumnarEvaluator;
+import graph.DagEvaluator;
+import graph.EpochEvaluator;
+import graph.ExecutionMode;
+import graph.GraphContext;
+import graph.GraphCompiler;
+import graph.GraphCompiler.CompiledGraph;
+import graph.LevelParallelEvaluator;
+import graph.MemoizingAgent;
 import graph.ParallelAgent;
+import graph.Topic;
 
 /**
  * The GenericConfig class implements the Config interface and is responsible for reading configuration files
  * and creating agents for the graph.
+ * Lines starting with '@' are graph-wide directives of the form {@code @key=value}; they are not part of the
+ * three-line agent blocks. The agent type line may be followed by {@code key=value} options that override
+ * the directives for that agent only, e.g. {@code configs.PlusAgent policy=conflate capacity=32}.
+ * The graph-wide directive {@code @history=N} makes every topic of the graph keep its last N values.
  */
 public class GenericConfig implements Config {
 
 	private String filePath;
 	private ArrayList<ParallelAgent> agents = new ArrayList<>();
+	private ArrayList<Agent> engineAgents = new ArrayList<>();
+	private ArrayList<AgentSettings> engineSettings = new ArrayList<>();
+	private ArrayList<Agent> created = new ArrayList<>();
+	// The created agents as they keep state: the memoizing wrapper where there is one
+	private ArrayList<Agent> stateful = new ArrayList<>();
+	private DagEvaluator evaluator;
+	private final AgentSettings defaults = new AgentSettings();
+	private String source = "";
+	private GraphContext context = GraphContext.getDefault();
+	private int historySize = 0;
 
 	/**
 	 * Sets the configuration file path.
@@ -28,23 +58,178 @@ public class GenericConfig implements Config {
 		this.filePath = string;
 	}
 
+	/**
+	 * Sets the graph the agents of this configuration are created in. Defaults to {@link GraphContext#getDefault()}.
+	 * Must be called before {@link #create()}.
+	 *
+	 * @param context the graph context
+	 */
+	public void setContext(GraphContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Returns the graph the agents of this configuration are created in.
+	 *
+	 * @return the graph context
+	 */
+	public GraphContext getContext() {
+		return context;
+	}
+
+	/**
+	 * Sets how the agents created by this configuration are scheduled.
+	 * A {@code @mode=...} directive in the configuration file takes precedence.
+	 *
+	 * @param mode the execution mode
+	 */
+	public void setExecutionMode(ExecutionMode mode) {
+		defaults.setMode(mode);
+	}
+
+	/**
+	 * Returns how the agents created by this configuration are scheduled.
+	 *
+	 * @return the execution mode
+	 */
+	public ExecutionMode getExecutionMode() {
+		return defaults.getMode();
+	}
+
+	/**
+	 * Sets the maximum number of queued messages an agent receives in one batch callback.
+	 * A {@code @batch=...} directive in the configuration file takes precedence.
+	 *
+	 * @param maxBatch the maximum batch size, at least 1
+	 */
+	public void setMaxBatch(int maxBatch) {
+		defaults.setMaxBatch(maxBatch);
+	}
+
+	/**
+	 * Sets how many recent values every topic of the graph keeps, see {@link graph.TopicHistory}.
+	 * A {@code @history=...} directive in the configuration file takes precedence.
+	 *
+	 * @param historySize the number of values per topic, or 0 for no history
+	 */
+	public void setHistorySize(int historySize) {
+		if (historySize < 0) {
+			throw new IllegalArgumentException("history must not be negative: " + historySize);
+		}
+		this.historySize = historySize;
+	}
+
+	/**
+	 * Returns the settings applied to every agent that does not override them on its type line.
+	 * They can be changed before {@link #create()}; directives in the configuration file take precedence.
+	 *
+	 * @return the default agent settings
+	 */
+	public AgentSettings getDefaults() {
+		return defaults;
+	}
+
+	/**
+	 * Returns the agents created by this configuration, e.g. to read their drop and conflation counters.
+	 *
+	 * @return an unmodifiable view of the created agents
+	 */
+	public List<ParallelAgent> getAgents() {
+		return Collections.unmodifiableList(agents);
+	}
+
+	/**
+	 * Creates an evaluator that pushes whole columns of values through the loaded graph, for offline scoring.
+	 * It runs the column kernels of the agents and leaves the live graph untouched, whatever the execution mode.
+	 *
+	 * @return the columnar evaluator
+	 * @throws IllegalStateException if an agent has no column kernel, or the graph has a cycle
+	 */
+	public ColumnarEvaluator createColumnarEvaluator() {
+		List<ColumnarAgent> kernels = new ArrayList<>();
+		for (Agent agent : created) {
+			if (!(agent instanceof ColumnarAgent)) {
+				throw new IllegalStateException("Agent " + agent.getName() + " cannot evaluate columns");
+			}
+			kernels.add((ColumnarAgent) agent);
+		}
+		return new ColumnarEvaluator(kernels);
+	}
+
+	/**
+	 * Compiles the loaded graph into one fused function, see {@link GraphCompiler}.
+	 * The result is cached by the content of the configuration, so reloading the same configuration reuses it.
+	 *
+	 * @return the compiled graph
+	 * @throws IllegalStateException if an agent cannot be compiled, or the graph has a cycle
+	 */
+	public CompiledGraph compile() {
+		List<ColumnarAgent> kernels = new ArrayList<>();
+		for (Agent agent : created) {
+			if (!(agent instanceof ColumnarAgent)) {
+				throw new IllegalStateException("Agent " + agent.getName() + " cannot be compiled");
+			}
+			kernels.add((ColumnarAgent) agent);
+		}
+		return GraphCompiler.compile(kernels, source);
+	}
+
+	/**
+	 * Saves the topic values and agent states of the loaded graph, see {@link Checkpoint}.
+	 *
+	 * @param file the checkpoint file
+	 * @throws IOException if the checkpoint cannot be written
+	 */
+	public void checkpoint(Path file) throws IOException {
+		Checkpoint.write(file, getVersion(), context.getTopicManager(), stateful);
+	}
+
+	/**
+	 * Restores the topic values and agent states of the loaded graph from a checkpoint taken with the same
+	 * configuration. Call it after {@link #create()} and before any message is published.
+	 *
+	 * @param file the checkpoint file
+	 * @return true if the checkpoint was restored, false if there is none for this configuration
+	 * @throws IOException if the checkpoint cannot be read or is corrupt
+	 */
+	public boolean restore(Path file) throws IOException {
+		return Checkpoint.restore(file, getVersion(), context.getTopicManager(), stateful);
+	}
+
+	/**
+	 * Returns the evaluator that runs the graph in the modes that do not wrap agents, such as
+	 * {@link ExecutionMode#SYNC_DAG}.
+	 *
+	 * @return the evaluator, or null in the other modes
+	 */
+	public DagEvaluator getEvaluator() {
+		return evaluator;
+	}
+
 	/**
 	 * Reads the configuration from the file path and creates the agents for the graph.
 	 */
 	public void create() {
 		List<String> lines = new ArrayList<>();
+		StringBuilder content = new StringBuilder();
 
 		try {
 			File myObj = new File(filePath);
 			Scanner myReader = new Scanner(myObj);
 			while (myReader.hasNextLine()) {
 				String data = myReader.nextLine();
-				lines.add(data); // Add each line to the ArrayList
+				content.append(data).append('\n');
+				if (isDirective(data)) {
+					applyDirective(data);
+				} else {
+					lines.add(data); // Add each line to the ArrayList
+				}
 			}
 			myReader.close();
 		} catch (FileNotFoundException e) {
 			System.err.println("File not found: " + e.getMessage());
 		}
+		this.source = content.toString();
 
 		if (lines.size() % 3 != 0) {
 			return;
@@ -52,26 +237,191 @@ public class GenericConfig implements Config {
 
 		// Process each group of 3 lines
 		for (int i = 0; i < lines.size(); i += 3) {
-			String agentType = lines.get(i);
+			String[] typeAndOptions = lines.get(i).trim().split("\\s+");
+			String agentType = typeAndOptions[0];
+			AgentSettings settings = parseOptions(typeAndOptions);
 			String[] subs = lines.get(i + 1).split(",");
 			String[] pubs = lines.get(i + 2).split(",");
 
 			Class<?> myClass;
 			try {
 				myClass = Class.forName(agentType);
-				@SuppressWarnings("rawtypes")
-				Class[] parameterType = {String[].class, String[].class};
 				try {
-					Object agentInstance = myClass.getConstructor(parameterType).newInstance(subs, pubs);
-					ParallelAgent pa = new ParallelAgent((Agent) agentInstance, 10);
-					agents.add(pa);
-				} catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException | NoSuchMethodException | SecurityException e) {
+					Object agentInstance = instantiate(myClass, subs, pubs);
+					created.add((Agent) agentInstance);
+					Agent agent = memoize((Agent) agentInstance, settings);
+					stateful.add(agent);
+					if (defaults.getMode().wrapsAgents()) {
+						ParallelAgent pa = new ParallelAgent(context, agent, settings);
+						agents.add(pa);
+					} else {
+						engineAgents.add(agent);
+						engineSettings.add(settings);
+					}
+				} catch (ReflectiveOperationException | IllegalArgumentException | SecurityException e) {
 					e.printStackTrace();
 				}
 			} catch (ClassNotFoundException e) {
 				e.printStackTrace();
 			}
 		}
+
+		if (historySize > 0) {
+			for (Topic topic : context.getTopicManager().getTopics()) {
+				topic.enableHistory(historySize);
+			}
+		}
+
+		if (!defaults.getMode().wrapsAgents()) {
+			try {
+				if (defaults.getMode() == ExecutionMode.PARALLEL_DAG) {
+					evaluator = new LevelParallelEvaluator(engineAgents, context.getTopicManager(),
+							(ForkJoinPool) context.executor(ExecutionMode.PARALLEL_DAG), defaults.getForkThreshold());
+				} else if (defaults.getMode() == ExecutionMode.EPOCH) {
+					evaluator = new EpochEvaluator(engineAgents, context,
+							(ForkJoinPool) context.executor(ExecutionMode.EPOCH));
+				} else {
+					evaluator = new DagEvaluator(engineAgents, context.getTopicManager());
+				}
+				evaluator.setCutoff(defaults.isCutoff());
+			} catch (IllegalStateException e) {
+				// Cyclic graphs are reported by the caller; synchronous callbacks around a cycle would recurse
+				// until the stack overflows, so the agents run through queues instead
+				System.err.println(e.getMessage() + "; running the agents in "
+						+ ExecutionMode.THREAD_PER_AGENT.getKey() + " mode");
+				wrapEngineAgents();
+			}
+		}
+	}
+
+	/**
+	 * Wraps the agents meant for a graph engine in ParallelAgents, for a graph the engines cannot run.
+	 * Each agent keeps the options on its type line that are valid for the queued modes.
+	 */
+	private void wrapEngineAgents() {
+		defaults.setMode(ExecutionMode.THREAD_PER_AGENT);
+		for (int i = 0; i < engineAgents.size(); i++) {
+			AgentSettings settings = engineSettings.get(i);
+			settings.setMode(ExecutionMode.THREAD_PER_AGENT);
+			try {
+				settings.validate();
+			} catch (IllegalArgumentException e) {
+				System.err.println("Ignoring options of " + engineAgents.get(i).getName() + ": " + e.getMessage());
+				settings = defaults.copy();
+			}
+			agents.add(new ParallelAgent(context, engineAgents.get(i), settings));
+		}
+	}
+
+	/**
+	 * Checks whether a configuration line is a graph-wide directive rather than part of an agent block.
+	 *
+	 * @param line the configuration line
+	 * @return true if the line is a directive
+	 */
+	public static boolean isDirective(String line) {
+		return line.startsWith("@");
+	}
+
+	/**
+	 * Applies a graph-wide directive such as {@code @mode=forkjoin} to the default agent settings,
+	 * or {@code @history=N} to the topics of the graph.
+	 *
+	 * @param line the directive line
+	 */
+	private void applyDirective(String line) {
+		String[] keyValue = line.substring(1).split("=", 2);
+		if (keyValue.length == 2 && keyValue[0].trim().equals("history")) {
+			try {
+				setHistorySize(Integer.parseInt(keyValue[1].trim()));
+			} catch (IllegalArgumentException e) {
+				System.err.println("Ignoring directive " + line + ": " + e.getMessage());
+			}
+			return;
+		}
+		applyOption(defaults, line.substring(1));
+	}
+
+	/**
+	 * Creates an agent in this configuration's graph context. Agent classes that only have the
+	 * {@code (String[], String[])} constructor always use the default context, so they are only accepted there.
+	 *
+	 * @param agentClass the agent class
+	 * @param subs the subscription topics
+	 * @param pubs the publication topics
+	 * @return the new agent
+	 * @throws ReflectiveOperationException if the agent cannot be created
+	 */
+	private Object instantiate(Class<?> agentClass, String[] subs, String[] pubs) throws ReflectiveOperationException {
+		try {
+			return agentClass.getConstructor(GraphContext.class, String[].class, String[].class).newInstance(context, subs, pubs);
+		} catch (NoSuchMethodException e) {
+			if (context != GraphContext.getDefault()) {
+				throw e;
+			}
+			return agentClass.getConstructor(String[].class, String[].class).newInstance(subs, pubs);
+		}
+	}
+
+	/**
+	 * Wraps an agent in a MemoizingAgent if its settings ask for a cache and the agent is deterministic.
+	 *
+	 * @param agent the agent
+	 * @param settings the settings of the agent
+	 * @return the memoizing wrapper, or the agent itself
+	 */
+	private Agent memoize(Agent agent, AgentSettings settings) {
+		if (settings.getMemoSize() == 0) {
+			return agent;
+		}
+		if (!agent.isDeterministic()) {
+			System.err.println("Not memoizing " + agent.getName() + ": the agent is not deterministic");
+			return agent;
+		}
+		return new MemoizingAgent(context, agent, settings.getMemoSize());
+	}
+
+	/**
+	 * Builds the settings of one agent from the defaults and the options on its type line.
+	 * The graph engines have no per-agent scheduling, so only the options that shape the agent itself apply there.
+	 *
+	 * @param typeAndOptions the agent class name followed by {@code key=value} options
+	 * @return the settings for the agent
+	 */
+	private AgentSettings parseOptions(String[] typeAndOptions) {
+		AgentSettings settings = defaults.copy();
+		for (int i = 1; i < typeAndOptions.length; i++) {
+			applyOption(settings, typeAndOptions[i]);
+		}
+		if (!defaults.getMode().wrapsAgents()) {
+			return settings;
+		}
+		try {
+			settings.validate();
+		} catch (IllegalArgumentException e) {
+			System.err.println("Ignoring options of " + typeAndOptions[0] + ": " + e.getMessage());
+			return defaults.copy();
+		}
+		return settings;
+	}
+
+	/**
+	 * Applies one {@code key=value} option, reporting and ignoring invalid ones.
+	 *
+	 * @param settings the settings to change
+	 * @param option the option text
+	 */
+	private static void applyOption(AgentSettings settings, String option) {
+		String[] keyValue = option.split("=", 2);
+		if (keyValue.length != 2) {
+			System.err.println("Ignoring malformed option: " + option);
+			return;
+		}
+		try {
+			settings.set(keyValue[0], keyValue[1]);
+		} catch (IllegalArgumentException e) {
+			System.err.println("Ignoring option " + option + ": " + e.getMessage());
+		}
 	}
 
 	/**
@@ -81,19 +431,18 @@ public class GenericConfig implements Config {
 	 */
 	@Override
 	public String getName() {
-		// TODO Auto-generated method stub
-		return null;
+		return filePath == null ? null : new File(filePath).getName();
 	}
 
 	/**
-	 * Returns the version of the configuration.
+	 * Returns the version of the configuration: a hash of the content of the loaded file, so the same
+	 * configuration always has the same version.
 	 *
 	 * @return the version of the configuration
 	 */
 	@Override
 	public int getVersion() {
-		// TODO Auto-generated method stub
-		return 0;
+		return source.hashCode();
 	}
 
 	/**
@@ -104,5 +453,11 @@ public class GenericConfig implements Config {
 		for (ParallelAgent pa : this.agents) {
 			pa.close();
 		}
+		if (evaluator != null) {
+			evaluator.close();
+		}
+		for (Agent agent : this.engineAgents) {
+			agent.close();
+		}
 	}
 }
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import graph.Agent;
 import graph.Topic;
 import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
 
 /**
  * The Graph class extends ArrayList to represent a graph structure consisting of nodes and edges.
@@ -32,7 +33,16 @@ public class Graph extends ArrayList<Node> {
 	 * Creates the graph from the topics managed by the TopicManagerSingleton.
 	 */
 	public void createFromTopics() {
-		for (Topic topic : TopicManagerSingleton.get().getTopics()) {
+		createFromTopics(TopicManagerSingleton.get());
+	}
+
+	/**
+	 * Creates the graph from the topics of the given topic manager.
+	 *
+	 * @param topicManager the topics of the graph
+	 */
+	public void createFromTopics(TopicManager topicManager) {
+		for (Topic topic : topicManager.getTopics()) {
 			Node topicNode = new Node("T" + topic.getName());
 			this.add(topicNode);
 			for (Agent agent : topic.getSubs()) {
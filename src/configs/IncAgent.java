@@ -1,17 +1,24 @@
 package configs;
 
-import graph.Agent;
+import graph.ColumnarAgent;
+import graph.GraphContext;
 import graph.Message;
-import graph.TopicManagerSingleton;
+import graph.Topic;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 
 /**
  * The IncAgent class implements the Agent interface and increments the value received from a subscribed topic by 1.
  */
-public class IncAgent implements Agent {
+public class IncAgent implements ColumnarAgent {
 	private final String name;
 	private double x;
 	private String[] subs;
 	private String[] pubs;
+	private final Topic inTopic;
+	private final Topic outTopic;
 	private static int counter = 0;
 
 	/**
@@ -22,6 +29,18 @@ public class IncAgent implements Agent {
 	 * @throws InvalidSubsLengthException if the subs array does not have exactly 1 element
 	 */
 	public IncAgent(String[] subs, String[] pubs) {
+		this(GraphContext.getDefault(), subs, pubs);
+	}
+
+	/**
+	 * Constructs a IncAgent on the topics of the given graph context.
+	 *
+	 * @param context the graph the topics belong to
+	 * @param subs the subscription topics (must have exactly 1 element)
+	 * @param pubs the publication topics
+	 * @throws InvalidSubsLengthException if the subs array does not have exactly 1 element
+	 */
+	public IncAgent(GraphContext context, String[] subs, String[] pubs) {
 		if (subs.length != 1) {
 			throw new InvalidSubsLengthException("Error: 'subs' array must have exactly 1 element.");
 		}
@@ -31,11 +50,15 @@ public class IncAgent implements Agent {
 		this.subs = subs;
 		this.name = ("+1" + counter);
 
+		// Resolve the topic handles once, so callbacks dispatch on identity instead of names
+		this.inTopic = context.getTopic(subs[0]);
+		this.outTopic = context.getTopic(pubs[0]);
+
 		// Subscribe to the first topic from subs
-		TopicManagerSingleton.get().getTopic(subs[0]).subscribe(this);
+		inTopic.subscribe(this);
 
 		// Add this agent as a publisher to the first topic from pubs
-		TopicManagerSingleton.get().getTopic(pubs[0]).addPublisher(this);
+		outTopic.addPublisher(this);
 	}
 
 	/**
@@ -65,14 +88,162 @@ public class IncAgent implements Agent {
 	 */
 	@Override
 	public void callback(String topic, Message msg) {
+		update(topic, msg);
+		publishResult();
+	}
+
+	/**
+	 * Callback method that is invoked with the handle of the topic on which a message was received.
+	 *
+	 * @param topic the topic on which the message was received
+	 * @param msg the message received
+	 */
+	@Override
+	public void callback(Topic topic, Message msg) {
+		update(topic, msg);
+		publishResult();
+	}
+
+	/**
+	 * Applies a whole burst of messages and publishes only the incremented final value.
+	 *
+	 * @param topics the topics on which the messages were received
+	 * @param msgs the messages received
+	 * @param count the number of messages in the burst
+	 */
+	@Override
+	public void callbackBatch(Topic[] topics, Message[] msgs, int count) {
+		for (int i = 0; i < count; i++) {
+			update(topics[i], msgs[i]);
+		}
+		publishResult();
+	}
+
+	/**
+	 * Stores the value of a message received on the subscribed topic.
+	 *
+	 * @param topic the topic on which the message was received
+	 * @param msg the message received
+	 */
+	private void update(String topic, Message msg) {
 		if (topic.equals(subs[0])) {
 			this.x = msg.asDouble;
 		}
+	}
+
+	/**
+	 * Stores the value of a message received on the subscribed topic handle.
+	 *
+	 * @param topic the topic on which the message was received
+	 * @param msg the message received
+	 */
+	private void update(Topic topic, Message msg) {
+		if (topic == inTopic) {
+			this.x = msg.asDouble;
+		}
+	}
+
+	/**
+	 * Publishes the incremented value to the first publication topic if it is a number.
+	 */
+	private void publishResult() {
 		if (!Double.isNaN(x)) {
-			TopicManagerSingleton.get().getTopic(this.pubs[0]).publish(new Message(x + 1));
+			outTopic.publish(new Message(x + 1));
 		}
 	}
 
+	/**
+	 * Returns the input topics in the order the column kernel reads them.
+	 *
+	 * @return the input topics
+	 */
+	@Override
+	public Topic[] getInputTopics() {
+		return new Topic[] {inTopic};
+	}
+
+	/**
+	 * Returns the output topic written by the column kernel.
+	 *
+	 * @return the output topic
+	 */
+	@Override
+	public Topic[] getOutputTopics() {
+		return new Topic[] {outTopic};
+	}
+
+	/**
+	 * Writes every value of the input column plus 1.
+	 *
+	 * @param inputs the input columns
+	 * @param outputs the output column to fill
+	 * @param length the number of rows
+	 */
+	@Override
+	public void evaluateColumns(double[][] inputs, double[][] outputs, int length) {
+		double[] x = inputs[0];
+		double[] out = outputs[0];
+		for (int i = 0; i < length; i++) {
+			out[i] = x[i] + 1;
+		}
+	}
+
+	/**
+	 * Returns the scalar kernel x + 1, for fusing the agent into a compiled graph.
+	 *
+	 * @return the kernel handle
+	 */
+	@Override
+	public MethodHandle getScalarKernel() {
+		try {
+			return MethodHandles.lookup().findStatic(IncAgent.class, "increment", MethodType.methodType(double.class, double.class));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The scalar kernel.
+	 *
+	 * @param x the input value
+	 * @return x + 1
+	 */
+	private static double increment(double x) {
+		return x + 1;
+	}
+
+	/**
+	 * Returns the latest input value.
+	 *
+	 * @return the state {x}
+	 */
+	@Override
+	public double[] getState() {
+		return new double[] {x};
+	}
+
+	/**
+	 * Restores the latest input value.
+	 *
+	 * @param state the state {x}
+	 */
+	@Override
+	public void setState(double[] state) {
+		if (state != null && state.length == 1) {
+			this.x = state[0];
+		}
+	}
+
+	/**
+	 * Returns true: the published result depends only on the latest input values.
+	 *
+	 * @return true
+	 */
+	@Override
+	public boolean isDeterministic() {
+		return true;
+	}
+
 	/**
 	 * Closes the agent and releases any resources held by it.
 	 */
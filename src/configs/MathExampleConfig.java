@@ -1,12 +1,49 @@
 package configs;
 
+import java.util.List;
+
+import graph.DagEvaluator;
+import graph.GraphContext;
+
 public class MathExampleConfig implements Config {
+    private final GraphContext context;
+    private DagEvaluator evaluator;
+
+    /**
+     * Creates the example in the default graph context.
+     */
+    public MathExampleConfig() {
+        this(GraphContext.getDefault());
+    }
 
+    /**
+     * Creates the example in the given graph context.
+     *
+     * @param context the graph the agents and topics belong to
+     */
+    public MathExampleConfig(GraphContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Creates the diamond R3 = (A + B) * (A - B). The agents are evaluated incrementally in dependency
+     * order, so a change of A or B makes mul fire once with both R1 and R2 settled.
+     */
     @Override
     public void create() {
-        new BinOpAgent("plus", "A", "B", "R1", (x,y)->x+y);
-        new BinOpAgent("minus", "A", "B", "R2", (x,y)->x-y);
-        new BinOpAgent("mul", "R1", "R2", "R3", (x,y)->x*y);
+        BinOpAgent plus = new BinOpAgent(context, "plus", "A", "B", "R1", (x,y)->x+y, true);
+        BinOpAgent minus = new BinOpAgent(context, "minus", "A", "B", "R2", (x,y)->x-y, true);
+        BinOpAgent mul = new BinOpAgent(context, "mul", "R1", "R2", "R3", (x,y)->x*y, true);
+        evaluator = new DagEvaluator(List.of(plus, minus, mul), context.getTopicManager());
+    }
+
+    /**
+     * Returns the evaluator running the example, to read its recomputation counters.
+     *
+     * @return the evaluator, or null before {@link #create()}
+     */
+    public DagEvaluator getEvaluator() {
+        return evaluator;
     }
 
     @Override
@@ -21,8 +58,10 @@ public class MathExampleConfig implements Config {
 
 	@Override
 	public void close() {
-		// TODO Auto-generated method stub
-		
+		if (evaluator != null) {
+			evaluator.close();
+			evaluator = null;
+		}
 	}
     
 }
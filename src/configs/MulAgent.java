@@ -1,21 +1,28 @@
 package configs;
 
-import graph.Agent;
+import graph.ColumnarAgent;
+import graph.GraphContext;
 import graph.Message;
-import graph.TopicManagerSingleton;
+import graph.Topic;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.Objects;
 
 /**
  * The MulAgent class implements the Agent interface and calculates the product of two values received from subscribed topics.
  */
-public class MulAgent implements Agent {
+public class MulAgent implements ColumnarAgent {
 
     private final String name;
     private Double x;
     private Double y;
     private final String[] subs;
     private final String[] pubs;
+    private final Topic xTopic;
+    private final Topic yTopic;
+    private final Topic outTopic;
     private static int counter = 0;
 
     /**
@@ -26,6 +33,18 @@ public class MulAgent implements Agent {
      * @throws PlusAgent.InvalidSubsLengthException if the subs array does not have exactly 2 elements
      */
     public MulAgent(String[] subs, String[] pubs) {
+        this(GraphContext.getDefault(), subs, pubs);
+    }
+
+    /**
+     * Constructs a MulAgent on the topics of the given graph context.
+     *
+     * @param context the graph the topics belong to
+     * @param subs the subscription topics (must have exactly 2 elements)
+     * @param pubs the publication topics
+     * @throws PlusAgent.InvalidSubsLengthException if the subs array does not have exactly 2 elements
+     */
+    public MulAgent(GraphContext context, String[] subs, String[] pubs) {
         if (subs.length != 2) {
             throw new PlusAgent.InvalidSubsLengthException("Error: 'subs' array must have exactly 2 elements.");
         }
@@ -35,9 +54,14 @@ public class MulAgent implements Agent {
         this.subs = subs;
         this.name = ("*" + counter);
 
+        // Resolve the topic handles once, so callbacks dispatch on identity instead of names
+        this.xTopic = context.getTopic(subs[0]);
+        this.yTopic = context.getTopic(subs[1]);
+        this.outTopic = context.getTopic(pubs[0]);
+
         // Subscribe to the first two topics from subs
-        TopicManagerSingleton.get().getTopic(subs[0]).subscribe(this);
-        TopicManagerSingleton.get().getTopic(subs[1]).subscribe(this);
+        xTopic.subscribe(this);
+        yTopic.subscribe(this);
 
         // Initialize x and y to null
         this.x = null;
@@ -45,7 +69,7 @@ public class MulAgent implements Agent {
 
         // Add this agent as a publisher to the publication topics
         for (String pub : this.pubs) {
-            TopicManagerSingleton.get().getTopic(pub).addPublisher(this);
+            context.getTopic(pub).addPublisher(this);
         }
     }
 
@@ -77,18 +101,171 @@ public class MulAgent implements Agent {
      */
     @Override
     public void callback(String topic, Message msg) {
+        update(topic, msg);
+        publishResult();
+    }
+
+    /**
+     * Callback method that is invoked with the handle of the topic on which a message was received.
+     *
+     * @param topic the topic on which the message was received
+     * @param msg the message received
+     */
+    @Override
+    public void callback(Topic topic, Message msg) {
+        update(topic, msg);
+        publishResult();
+    }
+
+    /**
+     * Applies a whole burst of messages and publishes only the result for the final input values.
+     *
+     * @param topics the topics on which the messages were received
+     * @param msgs the messages received
+     * @param count the number of messages in the burst
+     */
+    @Override
+    public void callbackBatch(Topic[] topics, Message[] msgs, int count) {
+        for (int i = 0; i < count; i++) {
+            update(topics[i], msgs[i]);
+        }
+        publishResult();
+    }
+
+    /**
+     * Stores the value of a message received on one of the subscribed topics.
+     *
+     * @param topic the topic on which the message was received
+     * @param msg the message received
+     */
+    private void update(String topic, Message msg) {
         if (Objects.equals(topic, subs[0])) {
             this.x = msg.asDouble;
         }
         if (Objects.equals(topic, subs[1])) {
             this.y = msg.asDouble;
         }
+    }
+
+    /**
+     * Stores the value of a message received on one of the subscribed topic handles.
+     *
+     * @param topic the topic on which the message was received
+     * @param msg the message received
+     */
+    private void update(Topic topic, Message msg) {
+        if (topic == xTopic) {
+            this.x = msg.asDouble;
+        }
+        if (topic == yTopic) {
+            this.y = msg.asDouble;
+        }
+    }
 
+    /**
+     * Publishes the result to the first publication topic once both input values are available.
+     */
+    private void publishResult() {
         if (this.x != null && this.y != null) {
-            TopicManagerSingleton.get().getTopic(this.pubs[0]).publish(new Message(x * y));
+            outTopic.publish(new Message(x * y));
         }
     }
 
+    /**
+     * Returns the input topics in the order the column kernel reads them.
+     *
+     * @return the input topics
+     */
+    @Override
+    public Topic[] getInputTopics() {
+        return new Topic[] {xTopic, yTopic};
+    }
+
+    /**
+     * Returns the output topic written by the column kernel.
+     *
+     * @return the output topic
+     */
+    @Override
+    public Topic[] getOutputTopics() {
+        return new Topic[] {outTopic};
+    }
+
+    /**
+     * Writes the products of the input columns, row by row.
+     *
+     * @param inputs the input columns
+     * @param outputs the output column to fill
+     * @param length the number of rows
+     */
+    @Override
+    public void evaluateColumns(double[][] inputs, double[][] outputs, int length) {
+        double[] x = inputs[0];
+        double[] y = inputs[1];
+        double[] out = outputs[0];
+        for (int i = 0; i < length; i++) {
+            out[i] = x[i] * y[i];
+        }
+    }
+
+    /**
+     * Returns the scalar kernel x * y, for fusing the agent into a compiled graph.
+     *
+     * @return the kernel handle
+     */
+    @Override
+    public MethodHandle getScalarKernel() {
+        try {
+            return MethodHandles.lookup().findStatic(MulAgent.class, "multiply", MethodType.methodType(double.class, double.class, double.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The scalar kernel.
+     *
+     * @param x the first input value
+     * @param y the second input value
+     * @return x * y
+     */
+    private static double multiply(double x, double y) {
+        return x * y;
+    }
+
+    /**
+     * Returns the latest values of both inputs.
+     *
+     * @return the state {x, y}
+     */
+    @Override
+    public double[] getState() {
+        return new double[] {x, y};
+    }
+
+    /**
+     * Restores the latest values of both inputs.
+     *
+     * @param state the state {x, y}
+     */
+    @Override
+    public void setState(double[] state) {
+        if (state != null && state.length == 2) {
+            this.x = state[0];
+            this.y = state[1];
+        }
+    }
+
+    /**
+     * Returns true: the published result depends only on the latest input values.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isDeterministic() {
+        return true;
+    }
+
     /**
      * Closes the agent and releases any resources held by it.
      */
@@ -5,4 +5,61 @@ public interface Agent {
 	void reset();
 	void callback(String topic, Message msg);
 	void close();
-}
\ No newline at end of file
+
+	/**
+	 * Handles a message published on a topic, identified by its handle rather than its name.
+	 * This is what {@link Topic#publish(Message)} calls; agents that cache their Topic handles can
+	 * override it to dispatch on identity. The default falls back to {@link #callback(String, Message)}.
+	 *
+	 * @param topic the topic on which the message was received
+	 * @param msg the message received
+	 */
+	default void callback(Topic topic, Message msg) {
+		callback(topic.name, msg);
+	}
+
+	/**
+	 * Handles a burst of messages in arrival order. The default delivers them one by one to
+	 * {@link #callback(Topic, Message)}; agents that only care about the final state can override it
+	 * to process the whole burst and publish once. The arrays are reused by the caller and must not be kept.
+	 *
+	 * @param topics the topics on which the messages were received
+	 * @param msgs the messages received
+	 * @param count the number of valid entries in both arrays
+	 */
+	default void callbackBatch(Topic[] topics, Message[] msgs, int count) {
+		for (int i = 0; i < count; i++) {
+			callback(topics[i], msgs[i]);
+		}
+	}
+
+	/**
+	 * Tells whether the agent is a pure function of its inputs: given the same latest value on every input topic,
+	 * it always publishes the same messages and keeps no other state. Only such agents may be memoized,
+	 * see {@link MemoizingAgent}. The default is false.
+	 *
+	 * @return true if the agent's outputs depend only on its latest input values
+	 */
+	default boolean isDeterministic() {
+		return false;
+	}
+
+	/**
+	 * Returns the values the agent keeps between callbacks, such as the latest value of each input, so they can be
+	 * saved in a {@link Checkpoint}. The default is null, for agents that keep no state.
+	 *
+	 * @return the state of the agent, or null
+	 */
+	default double[] getState() {
+		return null;
+	}
+
+	/**
+	 * Restores state previously returned by {@link #getState()} without publishing anything.
+	 * The default ignores it.
+	 *
+	 * @param state the saved state
+	 */
+	default void setState(double[] state) {
+	}
+}
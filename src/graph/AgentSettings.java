@@ -0,0 +1,273 @@
+package graph;
+
+/**
+ * The AgentSettings class holds the options used to wrap an agent in a ParallelAgent:
+ * inbox type and capacity, execution mode, batch size, overflow handling and wait strategy.
+ * As graph-wide defaults they also carry the options of the graph engines.
+ */
+public class AgentSettings {
+    private int capacity = 10;
+    private ExecutionMode mode = ExecutionMode.THREAD_PER_AGENT;
+    private int maxBatch = 1;
+    private OverflowPolicy policy = OverflowPolicy.BLOCK;
+    private long timeoutMillis = 100;
+    private InboxType inbox = InboxType.QUEUE;
+    private WaitStrategy waitStrategy = WaitStrategy.PARK;
+    private int forkThreshold = 4;
+    private boolean cutoff = true;
+    private int memoSize = 0;
+
+    /**
+     * Returns a copy of these settings that can be changed independently.
+     *
+     * @return the copy
+     */
+    public AgentSettings copy() {
+        AgentSettings copy = new AgentSettings();
+        copy.capacity = this.capacity;
+        copy.mode = this.mode;
+        copy.maxBatch = this.maxBatch;
+        copy.policy = this.policy;
+        copy.timeoutMillis = this.timeoutMillis;
+        copy.inbox = this.inbox;
+        copy.waitStrategy = this.waitStrategy;
+        copy.forkThreshold = this.forkThreshold;
+        copy.cutoff = this.cutoff;
+        copy.memoSize = this.memoSize;
+        return copy;
+    }
+
+    /**
+     * Sets one option from its configuration key and textual value, e.g. {@code policy=conflate}.
+     *
+     * @param key the option name
+     * @param value the option value
+     * @throws IllegalArgumentException if the key is unknown or the value is invalid
+     */
+    public void set(String key, String value) {
+        switch (key.trim().toLowerCase()) {
+            case "capacity" -> setCapacity(Integer.parseInt(value.trim()));
+            case "mode" -> setMode(ExecutionMode.fromKey(value));
+            case "batch" -> setMaxBatch(Integer.parseInt(value.trim()));
+            case "policy" -> setPolicy(OverflowPolicy.fromKey(value));
+            case "timeout" -> setTimeoutMillis(Long.parseLong(value.trim()));
+            case "inbox" -> setInbox(InboxType.fromKey(value));
+            case "wait" -> setWaitStrategy(WaitStrategy.fromKey(value));
+            case "fork" -> setForkThreshold(Integer.parseInt(value.trim()));
+            case "cutoff" -> setCutoff(Boolean.parseBoolean(value.trim()));
+            case "memo" -> setMemoSize(Integer.parseInt(value.trim()));
+            default -> throw new IllegalArgumentException("Unknown agent option: " + key);
+        }
+    }
+
+    /**
+     * Checks that the options can be combined.
+     *
+     * @throws IllegalArgumentException if the mode is a graph-wide engine, or if the ring buffer inbox is
+     *                                  combined with the drop-oldest policy, which only its consumer could carry out
+     */
+    public void validate() {
+        if (!mode.wrapsAgents()) {
+            throw new IllegalArgumentException("Mode " + mode.getKey() + " runs the whole graph and cannot be used for a single agent");
+        }
+        if (inbox == InboxType.RING && policy == OverflowPolicy.DROP_OLDEST) {
+            throw new IllegalArgumentException("The ring inbox does not support the drop_oldest policy");
+        }
+    }
+
+    /**
+     * Returns the capacity of the inbox.
+     *
+     * @return the inbox capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the capacity of the inbox.
+     *
+     * @param capacity the inbox capacity, at least 1
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns how the inbox is drained.
+     *
+     * @return the execution mode
+     */
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Sets how the inbox is drained.
+     *
+     * @param mode the execution mode
+     */
+    public void setMode(ExecutionMode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Returns the maximum number of messages handed to the agent in one batch callback.
+     *
+     * @return the maximum batch size
+     */
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    /**
+     * Sets the maximum number of messages handed to the agent in one batch callback.
+     *
+     * @param maxBatch the maximum batch size, at least 1
+     */
+    public void setMaxBatch(int maxBatch) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("batch must be at least 1: " + maxBatch);
+        }
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Returns what happens to a message when the inbox is full.
+     *
+     * @return the overflow policy
+     */
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Sets what happens to a message when the inbox is full.
+     *
+     * @param policy the overflow policy
+     */
+    public void setPolicy(OverflowPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Returns how long the {@link OverflowPolicy#BLOCK_TIMEOUT} policy waits for room.
+     *
+     * @return the timeout in milliseconds
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Sets how long the {@link OverflowPolicy#BLOCK_TIMEOUT} policy waits for room.
+     *
+     * @param timeoutMillis the timeout in milliseconds
+     */
+    public void setTimeoutMillis(long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeout must not be negative: " + timeoutMillis);
+        }
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Returns the data structure that buffers messages for the agent.
+     *
+     * @return the inbox type
+     */
+    public InboxType getInbox() {
+        return inbox;
+    }
+
+    /**
+     * Sets the data structure that buffers messages for the agent.
+     *
+     * @param inbox the inbox type
+     */
+    public void setInbox(InboxType inbox) {
+        this.inbox = inbox;
+    }
+
+    /**
+     * Returns how threads wait on a ring buffer inbox.
+     *
+     * @return the wait strategy
+     */
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * Sets how threads wait on a ring buffer inbox.
+     *
+     * @param waitStrategy the wait strategy
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Returns the smallest number of pending agents on a level that the {@link ExecutionMode#PARALLEL_DAG} mode forks.
+     *
+     * @return the fork threshold
+     */
+    public int getForkThreshold() {
+        return forkThreshold;
+    }
+
+    /**
+     * Sets the smallest number of pending agents on a level that the {@link ExecutionMode#PARALLEL_DAG} mode forks;
+     * smaller levels run inline.
+     *
+     * @param forkThreshold the fork threshold, at least 1
+     */
+    public void setForkThreshold(int forkThreshold) {
+        if (forkThreshold < 1) {
+            throw new IllegalArgumentException("fork must be at least 1: " + forkThreshold);
+        }
+        this.forkThreshold = forkThreshold;
+    }
+
+    /**
+     * Checks whether the graph engines stop propagating values that did not change.
+     *
+     * @return true if unchanged values are cut off
+     */
+    public boolean isCutoff() {
+        return cutoff;
+    }
+
+    /**
+     * Sets whether the graph engines stop propagating values that did not change.
+     *
+     * @param cutoff true to cut off unchanged values
+     */
+    public void setCutoff(boolean cutoff) {
+        this.cutoff = cutoff;
+    }
+
+    /**
+     * Returns how many input combinations a deterministic agent caches, see {@link MemoizingAgent}.
+     *
+     * @return the cache size, 0 if the agent is not memoized
+     */
+    public int getMemoSize() {
+        return memoSize;
+    }
+
+    /**
+     * Sets how many input combinations a deterministic agent caches.
+     *
+     * @param memoSize the cache size, or 0 to disable memoization
+     */
+    public void setMemoSize(int memoSize) {
+        if (memoSize < 0) {
+            throw new IllegalArgumentException("memo must not be negative: " + memoSize);
+        }
+        this.memoSize = memoSize;
+    }
+}
@@ -0,0 +1,234 @@
+package graph;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import graph.TopicManagerSingleton.TopicManager;
+
+/**
+ * The Checkpoint class saves the last message of every topic and the state of every agent to a binary file,
+ * and restores them after a restart without replaying any input.
+ * The file is written through a memory-mapped channel into a temporary file that then replaces the previous
+ * checkpoint, so a crash while writing leaves the previous checkpoint intact.
+ * <p>
+ * Layout, big-endian: a header of magic {@code CGCP}, format version, configuration version, creation time in
+ * milliseconds, body length and CRC32 of the body; then the body: the topic count and, per topic, its name and
+ * either a number or a text value; the agent count and, per agent, its class name and its state values.
+ * A checkpoint is only restored into a graph loaded from the same configuration version.
+ */
+public final class Checkpoint {
+    private static final int MAGIC = 0x43474350;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 4 + 8;
+    private static final byte NUMBER = 0;
+    private static final byte TEXT = 1;
+
+    private Checkpoint() {
+    }
+
+    /**
+     * Writes a checkpoint of the topics and agents of a graph.
+     * Agents that are running may change their state while it is read, so the checkpoint is only exact for a
+     * graph that is not receiving messages.
+     *
+     * @param file the checkpoint file; replaced if it exists
+     * @param configVersion the version of the configuration the graph was loaded from
+     * @param topics the topics of the graph
+     * @param agents the agents of the graph, in the order they are created from the configuration
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path file, int configVersion, TopicManager topics, List<? extends Agent> agents)
+            throws IOException {
+        List<byte[]> names = new ArrayList<>();
+        List<Message> values = new ArrayList<>();
+        List<byte[]> texts = new ArrayList<>();
+        int size = 4;
+        for (Topic topic : topics.getTopics()) {
+            byte[] name = topic.name.getBytes(StandardCharsets.UTF_8);
+            Message msg = topic.getMsg();
+            byte[] text = Double.isNaN(msg.asDouble) ? msg.getText().getBytes(StandardCharsets.UTF_8) : null;
+            names.add(name);
+            values.add(msg);
+            texts.add(text);
+            size += 4 + name.length + 1 + (text == null ? 8 : 4 + text.length);
+        }
+        List<byte[]> classes = new ArrayList<>();
+        List<double[]> states = new ArrayList<>();
+        size += 4;
+        for (Agent agent : agents) {
+            byte[] type = agent.getClass().getName().getBytes(StandardCharsets.UTF_8);
+            double[] state = agent.getState();
+            classes.add(type);
+            states.add(state);
+            size += 4 + type.length + 4 + (state == null ? 0 : 8 * state.length);
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + size);
+            buf.position(HEADER_SIZE);
+            buf.putInt(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                putBytes(buf, names.get(i));
+                if (texts.get(i) == null) {
+                    buf.put(NUMBER);
+                    buf.putDouble(values.get(i).asDouble);
+                } else {
+                    buf.put(TEXT);
+                    putBytes(buf, texts.get(i));
+                }
+            }
+            buf.putInt(classes.size());
+            for (int i = 0; i < classes.size(); i++) {
+                putBytes(buf, classes.get(i));
+                double[] state = states.get(i);
+                buf.putInt(state == null ? -1 : state.length);
+                if (state != null) {
+                    for (double v : state) {
+                        buf.putDouble(v);
+                    }
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buf.duplicate().position(HEADER_SIZE).limit(HEADER_SIZE + size));
+            buf.position(0);
+            buf.putInt(MAGIC);
+            buf.putInt(FORMAT_VERSION);
+            buf.putInt(configVersion);
+            buf.putLong(System.currentTimeMillis());
+            buf.putInt(size);
+            buf.putLong(crc.getValue());
+            buf.force();
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Restores the topics and agents of a graph from a checkpoint. Nothing is published: the topics get their
+     * last message back and the agents their state, as if they had never stopped.
+     * Topics the graph does not have are skipped, and so are the agents whose class differs from the saved one.
+     *
+     * @param file the checkpoint file
+     * @param configVersion the version of the configuration the graph was loaded from
+     * @param topics the topics of the graph
+     * @param agents the agents of the graph, in the order they are created from the configuration
+     * @return true if the checkpoint was restored, false if there is none or it belongs to another configuration
+     * @throws IOException if the file cannot be read, or is corrupt or of an unknown format
+     */
+    public static boolean restore(Path file, int configVersion, TopicManager topics, List<? extends Agent> agents)
+            throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        Map<String, Message> savedTopics = new HashMap<>();
+        List<String> savedClasses = new ArrayList<>();
+        List<double[]> savedStates = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Corrupt checkpoint " + file + ": truncated header");
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC) {
+                throw new IOException(file + " is not a checkpoint");
+            }
+            int format = buf.getInt();
+            if (format != FORMAT_VERSION) {
+                throw new IOException("Unsupported checkpoint format " + format + " in " + file);
+            }
+            if (buf.getInt() != configVersion) {
+                return false;
+            }
+            buf.getLong();
+            int size = buf.getInt();
+            long checksum = buf.getLong();
+            if (size < 0 || HEADER_SIZE + (long) size > channel.size()) {
+                throw new IOException("Corrupt checkpoint " + file + ": truncated body");
+            }
+            buf.limit(HEADER_SIZE + size);
+            CRC32 crc = new CRC32();
+            crc.update(buf.duplicate());
+            if (crc.getValue() != checksum) {
+                throw new IOException("Corrupt checkpoint " + file + ": checksum mismatch");
+            }
+            try {
+                int topicCount = buf.getInt();
+                for (int i = 0; i < topicCount; i++) {
+                    String name = getString(buf);
+                    byte kind = buf.get();
+                    savedTopics.put(name, kind == NUMBER ? new Message(buf.getDouble()) : new Message(getString(buf)));
+                }
+                int agentCount = buf.getInt();
+                for (int i = 0; i < agentCount; i++) {
+                    savedClasses.add(getString(buf));
+                    int length = buf.getInt();
+                    double[] state = null;
+                    if (length >= 0) {
+                        state = new double[length];
+                        buf.asDoubleBuffer().get(state);
+                        buf.position(buf.position() + 8 * length);
+                    }
+                    savedStates.add(state);
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+                throw new IOException("Corrupt checkpoint " + file, e);
+            }
+        }
+
+        for (Topic topic : topics.getTopics()) {
+            Message saved = savedTopics.get(topic.name);
+            if (saved != null) {
+                topic.restore(saved);
+            }
+        }
+        for (int i = 0; i < agents.size() && i < savedClasses.size(); i++) {
+            Agent agent = agents.get(i);
+            double[] state = savedStates.get(i);
+            if (state != null && agent.getClass().getName().equals(savedClasses.get(i))) {
+                agent.setState(state);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a length-prefixed byte string.
+     *
+     * @param buf the buffer
+     * @param bytes the bytes
+     */
+    private static void putBytes(ByteBuffer buf, byte[] bytes) {
+        buf.putInt(bytes.length);
+        buf.put(bytes);
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string.
+     *
+     * @param buf the buffer
+     * @return the string
+     */
+    private static String getString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,47 @@
+package graph;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * The ColumnarAgent interface is implemented by agents that can also process whole columns of values at once.
+ * Row {@code i} of every output column is what the agent would publish if row {@code i} of every input column
+ * were the latest value of the corresponding input topic. Kernels should be plain loops over primitive arrays,
+ * which the JIT can unroll and vectorize. See {@link ColumnarEvaluator}.
+ */
+public interface ColumnarAgent extends Agent {
+
+	/**
+	 * Returns the topics whose columns the kernel reads, in the order it expects them.
+	 *
+	 * @return the input topics
+	 */
+	Topic[] getInputTopics();
+
+	/**
+	 * Returns the topics whose columns the kernel writes, in the order it writes them.
+	 *
+	 * @return the output topics
+	 */
+	Topic[] getOutputTopics();
+
+	/**
+	 * Computes the output columns from the input columns. Must not keep or modify the input arrays.
+	 *
+	 * @param inputs one column per input topic, each with at least {@code length} rows
+	 * @param outputs one column per output topic to fill, each with at least {@code length} rows
+	 * @param length the number of rows
+	 */
+	void evaluateColumns(double[][] inputs, double[][] outputs, int length);
+
+	/**
+	 * Returns the kernel for a single row, for agents with exactly one output topic: a method handle taking one
+	 * double per input topic, in the order of {@link #getInputTopics()}, and returning the output value.
+	 * {@link GraphCompiler} fuses these handles into one function. The default is null, meaning the agent
+	 * cannot be compiled.
+	 *
+	 * @return the scalar kernel, or null
+	 */
+	default MethodHandle getScalarKernel() {
+		return null;
+	}
+}
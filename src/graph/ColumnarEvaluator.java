@@ -0,0 +1,117 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The ColumnarEvaluator class pushes whole columns of input values through an acyclic graph of columnar agents.
+ * Instead of one publish per row, every agent runs its kernel once per call over all rows, in topological order,
+ * and the result columns of one agent become the input columns of the next. Nothing is published: the topics
+ * are only used to name the columns, so a live graph on the same topics is left untouched.
+ */
+public class ColumnarEvaluator {
+    private final GraphPlan plan;
+    private final ColumnarAgent[] kernels;
+
+    /**
+     * Builds the plan for the given agents from the topics they declare.
+     *
+     * @param agents the agents to evaluate
+     * @throws IllegalStateException if the agents form a cycle
+     */
+    public ColumnarEvaluator(Collection<? extends ColumnarAgent> agents) {
+        this.plan = GraphPlan.fromDeclaredTopics(agents);
+        this.kernels = new ColumnarAgent[plan.size()];
+        for (int i = 0; i < kernels.length; i++) {
+            kernels[i] = (ColumnarAgent) plan.getAgent(i);
+        }
+    }
+
+    /**
+     * Returns the plan the evaluator runs.
+     *
+     * @return the graph plan
+     */
+    public GraphPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * Evaluates the graph for every row of the given input columns.
+     * Input topics without a column keep their current value on every row.
+     *
+     * @param inputs the columns of the input topics, by topic name; all of the same length
+     * @return the columns of every topic published by the agents, by topic name
+     * @throws IllegalArgumentException if the columns differ in length, or a column is given for a topic
+     *                                  that the agents compute or do not use
+     */
+    public Map<String, double[]> evaluate(Map<String, double[]> inputs) {
+        int length = -1;
+        double[][] columns = new double[plan.maxTopicId() + 1][];
+        Topic[] byId = new Topic[columns.length];
+        for (Topic topic : plan.getTopics()) {
+            byId[topic.id] = topic;
+        }
+        for (Map.Entry<String, double[]> e : inputs.entrySet()) {
+            Topic topic = find(byId, e.getKey());
+            if (topic == null || plan.isInternal(topic)) {
+                throw new IllegalArgumentException("Topic " + e.getKey() + " is not an input of the graph");
+            }
+            if (length >= 0 && e.getValue().length != length) {
+                throw new IllegalArgumentException("Column " + e.getKey() + " has " + e.getValue().length
+                        + " rows instead of " + length);
+            }
+            length = e.getValue().length;
+            columns[topic.id] = e.getValue();
+        }
+        if (length < 0) {
+            length = 1;
+        }
+        for (Topic topic : byId) {
+            if (topic != null && !plan.isInternal(topic) && columns[topic.id] == null) {
+                double[] constant = new double[length];
+                Arrays.fill(constant, topic.getMsg().asDouble);
+                columns[topic.id] = constant;
+            }
+        }
+
+        Map<String, double[]> results = new LinkedHashMap<>();
+        for (int i = 0; i < kernels.length; i++) {
+            ColumnarAgent kernel = kernels[i];
+            Topic[] in = kernel.getInputTopics();
+            Topic[] out = kernel.getOutputTopics();
+            double[][] inCols = new double[in.length][];
+            for (int j = 0; j < in.length; j++) {
+                inCols[j] = columns[in[j].id];
+            }
+            double[][] outCols = new double[out.length][];
+            for (int j = 0; j < out.length; j++) {
+                outCols[j] = new double[length];
+            }
+            kernel.evaluateColumns(inCols, outCols, length);
+            for (int j = 0; j < out.length; j++) {
+                columns[out[j].id] = outCols[j];
+                results.put(out[j].name, outCols[j]);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Finds a plan topic by name.
+     *
+     * @param byId the plan topics indexed by id
+     * @param name the topic name
+     * @return the topic, or null if the plan does not use it
+     */
+    private static Topic find(Topic[] byId, String name) {
+        for (Topic topic : byId) {
+            if (topic != null && topic.name.equals(name)) {
+                return topic;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,348 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+
+import graph.TopicManagerSingleton.TopicManager;
+
+/**
+ * The DagEvaluator class runs an acyclic graph of agents synchronously, without queues or threads.
+ * It takes over the fan-out of every topic the agents use: a publish on an external input topic records the
+ * message for the subscribed agents and then evaluates the graph in one pass over the agents in topological
+ * order, on the publisher's thread. Each agent runs at most once per pass and receives all of its inputs that
+ * changed in that pass through {@link Agent#callbackBatch(Topic[], Message[], int)}, so a multi-input agent
+ * sees its inputs already settled. Subscribers that are not part of the plan keep receiving plain callbacks.
+ * Evaluation is incremental: only agents downstream of a changed topic run, and with the cutoff enabled a
+ * message equal to the previous value of its topic is not propagated to the plan agents at all, so a
+ * subgraph whose inputs did not change is not recomputed.
+ */
+public class DagEvaluator implements TopicDispatcher {
+    final GraphPlan plan;
+    // Per agent: the message received on each input topic during the current pass, aligned with plan inputs
+    private final Message[][] pending;
+    // Per agent: whether any input arrived during the current pass. Setting a flag is idempotent, so agents
+    // evaluated concurrently may record into the same downstream agent.
+    private final boolean[] dirty;
+    // Per agent: whether an input message was cut off since the agent was last evaluated or counted as pruned
+    private final boolean[] suppressed;
+    // Per topic id: for every subscriber in plan.getSubscribers(topic), the slot of the topic in its inputs
+    private final int[][] slots;
+    // Per topic id: the plan agents subscribed to the topic
+    private final Agent[][] planSubs;
+    // Per agent: the arrays handed to callbackBatch
+    private final Topic[][] batchTopics;
+    private final Message[][] batchMsgs;
+    // Per topic id: the last message propagated to the plan agents, for the cutoff
+    private final Message[] lastValues;
+    private volatile boolean cutoff = true;
+    private long passes;
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder cutoffs = new LongAdder();
+    private final LongAdder pruned = new LongAdder();
+
+    /**
+     * Builds the plan for the given agents and takes over the fan-out of their topics.
+     *
+     * @param agents the agents to evaluate; they must be subscribed to their topics directly
+     * @param topicManager the topics connecting the agents
+     * @throws IllegalStateException if the agents form a cycle
+     */
+    public DagEvaluator(Collection<? extends Agent> agents, TopicManager topicManager) {
+        this.plan = new GraphPlan(agents, topicManager);
+        int n = plan.size();
+        this.pending = new Message[n][];
+        this.dirty = new boolean[n];
+        this.suppressed = new boolean[n];
+        this.batchTopics = new Topic[n][];
+        this.batchMsgs = new Message[n][];
+        for (int i = 0; i < n; i++) {
+            int inputs = plan.getInputs(i).length;
+            pending[i] = new Message[inputs];
+            batchTopics[i] = new Topic[inputs];
+            batchMsgs[i] = new Message[inputs];
+        }
+        this.lastValues = new Message[plan.maxTopicId() + 1];
+        this.slots = new int[plan.maxTopicId() + 1][];
+        this.planSubs = new Agent[plan.maxTopicId() + 1][];
+        for (Topic topic : plan.getTopics()) {
+            int[] subs = plan.getSubscribers(topic);
+            slots[topic.id] = new int[subs.length];
+            planSubs[topic.id] = new Agent[subs.length];
+            for (int k = 0; k < subs.length; k++) {
+                slots[topic.id][k] = slotOf(plan.getInputs(subs[k]), topic);
+                planSubs[topic.id][k] = plan.getAgent(subs[k]);
+            }
+        }
+        for (Topic topic : plan.getTopics()) {
+            topic.setDispatcher(this);
+        }
+    }
+
+    /**
+     * Returns the position of a topic in an input array.
+     *
+     * @param inputs the input topics of an agent
+     * @param topic the topic to find
+     * @return the position of the topic
+     */
+    private static int slotOf(Topic[] inputs, Topic topic) {
+        for (int j = 0; j < inputs.length; j++) {
+            if (inputs[j] == topic) {
+                return j;
+            }
+        }
+        throw new IllegalStateException("Topic " + topic.name + " is not an input");
+    }
+
+    /**
+     * Returns the plan the evaluator runs.
+     *
+     * @return the graph plan
+     */
+    public GraphPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * Returns the number of evaluation passes run so far.
+     *
+     * @return the pass count
+     */
+    public synchronized long getPassCount() {
+        return passes;
+    }
+
+    /**
+     * Returns the number of agent invocations made by all passes so far.
+     *
+     * @return the evaluation count
+     */
+    public long getEvaluationCount() {
+        return evaluations.sum();
+    }
+
+    /**
+     * Returns the number of agent invocations that the value cutoff saved: the times an agent received a message
+     * on an input that was cut off and, with no other input changed, was not run. Agents outside the part of the
+     * graph a publish reaches are not counted, and neither are agents that a pruned agent would have reached.
+     *
+     * @return the skipped evaluation count
+     */
+    public long getSkippedEvaluationCount() {
+        return pruned.sum();
+    }
+
+    /**
+     * Returns the number of messages that were not propagated because they equal the previous value of their topic.
+     *
+     * @return the cutoff count
+     */
+    public long getCutoffCount() {
+        return cutoffs.sum();
+    }
+
+    /**
+     * Enables or disables the cutoff of unchanged values. It is enabled by default.
+     * Agents that count messages rather than react to values need every message and should disable it.
+     *
+     * @param cutoff true to stop propagation at unchanged values
+     */
+    public void setCutoff(boolean cutoff) {
+        this.cutoff = cutoff;
+    }
+
+    /**
+     * Records a published message for the plan agents subscribed to the topic.
+     * A publish made by an agent during a pass is only recorded; any other publish starts a new pass.
+     *
+     * @param topic the topic the message was published on
+     * @param msg the published message
+     * @param subs the subscribers of the topic
+     */
+    @Override
+    public void dispatch(Topic topic, Message msg, Agent[] subs) {
+        if (isNestedPublish(topic)) {
+            record(topic, msg, subs);
+            return;
+        }
+        synchronized (this) {
+            if (record(topic, msg, subs)) {
+                passes++;
+                runPass();
+            } else {
+                countPruned(topic);
+            }
+        }
+    }
+
+    /**
+     * Counts a pass run outside of {@link #dispatch(Topic, Message, Agent[])}.
+     */
+    synchronized void countPass() {
+        passes++;
+    }
+
+    /**
+     * Checks whether a publish was made by an agent during the running pass.
+     *
+     * @param topic the topic the message was published on
+     * @return true if the message belongs to the running pass
+     */
+    boolean isNestedPublish(Topic topic) {
+        return Thread.holdsLock(this);
+    }
+
+    /**
+     * Stores the message in the pending inputs of the subscribed plan agents and calls any other subscribers.
+     *
+     * @param topic the topic the message was published on
+     * @param msg the published message
+     * @param subs the subscribers of the topic
+     * @return true if the message was propagated to plan agents, false if it was cut off or has no plan subscribers
+     */
+    final boolean record(Topic topic, Message msg, Agent[] subs) {
+        int[] indices = plan.getSubscribers(topic);
+        boolean propagate = indices.length > 0;
+        if (cutoff) {
+            Message last = lastValues[topic.id];
+            lastValues[topic.id] = msg;
+            if (last != null && sameValue(last, msg)) {
+                cutoffs.increment();
+                propagate = false;
+                for (int index : indices) {
+                    suppressed[index] = true;
+                }
+            }
+        }
+        if (propagate) {
+            int[] slot = slots[topic.id];
+            for (int k = 0; k < indices.length; k++) {
+                pending[indices[k]][slot[k]] = msg;
+                dirty[indices[k]] = true;
+            }
+        }
+        if (subs.length != indices.length) {
+            Agent[] known = planSubs[topic.id];
+            for (Agent sub : subs) {
+                if (!contains(known, sub)) {
+                    sub.callback(topic, msg);
+                }
+            }
+        }
+        return propagate;
+    }
+
+    /**
+     * Counts the subscribers of a topic whose cut-off message started no pass as pruned.
+     *
+     * @param topic the topic of the cut-off message
+     */
+    final void countPruned(Topic topic) {
+        for (int i : plan.getSubscribers(topic)) {
+            isDirty(i);
+        }
+    }
+
+    /**
+     * Checks whether two messages carry the same value: the same number, or the same text if neither is a number.
+     *
+     * @param a the first message
+     * @param b the second message
+     * @return true if the values are equal
+     */
+    private static boolean sameValue(Message a, Message b) {
+        if (a == b) {
+            return true;
+        }
+        if (Double.isNaN(a.asDouble) && Double.isNaN(b.asDouble)) {
+            return a.getText().equals(b.getText());
+        }
+        return a.asDouble == b.asDouble;
+    }
+
+    /**
+     * Checks whether an agent is in a small array, by identity.
+     *
+     * @param agents the array to search
+     * @param a the agent to find
+     * @return true if the agent is in the array
+     */
+    private static boolean contains(Agent[] agents, Agent a) {
+        for (Agent candidate : agents) {
+            if (candidate == a) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs every agent with pending inputs once, in topological order.
+     * Messages an agent publishes are recorded for agents further down the order, so one pass settles the graph.
+     */
+    void runPass() {
+        for (int i = 0; i < pending.length; i++) {
+            if (isDirty(i)) {
+                evaluate(i);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the agent at the given position has inputs waiting in the running pass. Passes call it once
+     * per agent they reach, so an agent that is clean only because its inputs were cut off is counted as pruned.
+     *
+     * @param i the position of the agent
+     * @return true if the agent has to be evaluated
+     */
+    final boolean isDirty(int i) {
+        if (dirty[i]) {
+            return true;
+        }
+        if (suppressed[i]) {
+            suppressed[i] = false;
+            pruned.increment();
+        }
+        return false;
+    }
+
+    /**
+     * Hands the pending inputs of one agent to it in a single batch callback.
+     * Different agents may be evaluated concurrently, as long as none of them reads another's outputs.
+     *
+     * @param i the position of the agent
+     */
+    final void evaluate(int i) {
+        Topic[] in = plan.getInputs(i);
+        Message[] p = pending[i];
+        Topic[] topics = batchTopics[i];
+        Message[] msgs = batchMsgs[i];
+        int count = 0;
+        for (int j = 0; j < p.length; j++) {
+            if (p[j] != null) {
+                topics[count] = in[j];
+                msgs[count] = p[j];
+                p[j] = null;
+                count++;
+            }
+        }
+        dirty[i] = false;
+        suppressed[i] = false;
+        evaluations.increment();
+        try {
+            plan.getAgent(i).callbackBatch(topics, msgs, count);
+        } finally {
+            Arrays.fill(msgs, 0, count, null);
+        }
+    }
+
+    /**
+     * Gives the fan-out of the topics back to the topics themselves.
+     */
+    public void close() {
+        for (Topic topic : plan.getTopics()) {
+            topic.setDispatcher(null);
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import graph.TopicManagerSingleton.TopicManager;
+
+/**
+ * The EpochEvaluator class runs an acyclic graph of agents asynchronously on a fork/join pool without glitches.
+ * Every external publish opens an epoch. The agents reachable from the published topic are the affected agents
+ * of the epoch, and each of them waits for its affected upstream agents to settle before it runs, so a
+ * multi-input agent fires once per epoch with all of its inputs already updated. Independent agents of an epoch
+ * run in parallel; epochs run one after the other in publish order, and the publisher never waits for them.
+ */
+public class EpochEvaluator extends DagEvaluator {
+    private final ForkJoinPool pool;
+    private final GraphContext context;
+    // Notified whenever the evaluator goes idle, for awaitIdle
+    private final Object idleLock = new Object();
+    // Per agent: the plan agents that read one of its outputs, without duplicates
+    private final int[][] downstream;
+    // Per topic id: the epoch shape of a publish on the topic, computed on the topic's first epoch
+    private final Shape[] shapes;
+    private final AtomicIntegerArray countdown;
+    private final AtomicInteger remaining = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Publish> inputs = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile boolean inEpoch = false;
+
+    /**
+     * Builds the plan for the given agents and takes over the fan-out of their topics.
+     *
+     * @param agents the agents to evaluate; they must be subscribed to their topics directly
+     * @param topicManager the topics connecting the agents
+     * @param pool the pool running the agents
+     * @throws IllegalStateException if the agents form a cycle
+     */
+    public EpochEvaluator(Collection<? extends Agent> agents, TopicManager topicManager, ForkJoinPool pool) {
+        this(agents, topicManager, null, pool);
+    }
+
+    /**
+     * Builds the plan for the given agents of a graph context and takes over the fan-out of their topics.
+     * The evaluator registers with the context, so {@link GraphContext#awaitSettled(long)} waits for its epochs.
+     *
+     * @param agents the agents to evaluate; they must be subscribed to their topics directly
+     * @param context the graph the agents belong to
+     * @param pool the pool running the agents
+     * @throws IllegalStateException if the agents form a cycle
+     */
+    public EpochEvaluator(Collection<? extends Agent> agents, GraphContext context, ForkJoinPool pool) {
+        this(agents, context.getTopicManager(), context, pool);
+        context.register(this);
+    }
+
+    /**
+     * Builds the plan for the given agents and takes over the fan-out of their topics.
+     *
+     * @param agents the agents to evaluate
+     * @param topicManager the topics connecting the agents
+     * @param context the graph context to unregister from on close, or null
+     * @param pool the pool running the agents
+     */
+    private EpochEvaluator(Collection<? extends Agent> agents, TopicManager topicManager, GraphContext context,
+            ForkJoinPool pool) {
+        super(agents, topicManager);
+        this.pool = pool;
+        this.context = context;
+        int n = plan.size();
+        this.countdown = new AtomicIntegerArray(n);
+        this.downstream = new int[n][];
+        // The last agent each reader was collected for, so one array serves every agent
+        int[] seenBy = new int[n];
+        Arrays.fill(seenBy, -1);
+        for (int i = 0; i < n; i++) {
+            List<Integer> readers = new ArrayList<>();
+            for (Topic t : plan.getOutputs(i)) {
+                for (int reader : plan.getSubscribers(t)) {
+                    if (seenBy[reader] != i) {
+                        seenBy[reader] = i;
+                        readers.add(reader);
+                    }
+                }
+            }
+            downstream[i] = readers.stream().mapToInt(Integer::intValue).toArray();
+        }
+        this.shapes = new Shape[plan.maxTopicId() + 1];
+    }
+
+    /**
+     * Returns the shape of an epoch opened by a publish on a topic, computing it on the topic's first epoch.
+     * Only the thread running {@link #nextEpoch()} calls it, and the running flag hands that role from one
+     * thread to the next, so the cache needs no lock.
+     *
+     * @param topic the published topic
+     * @return the affected agents and the number of affected upstream agents of each
+     */
+    private Shape shape(Topic topic) {
+        Shape shape = shapes[topic.id];
+        if (shape == null) {
+            shape = computeShape(topic);
+            shapes[topic.id] = shape;
+        }
+        return shape;
+    }
+
+    /**
+     * Computes the affected agents of a publish on a topic and the number of affected upstream agents of each.
+     *
+     * @param topic the published topic
+     * @return the shape of the topic's epochs
+     */
+    private Shape computeShape(Topic topic) {
+        int n = plan.size();
+        boolean[] affected = new boolean[n];
+        for (int i : plan.getSubscribers(topic)) {
+            affected[i] = true;
+        }
+        // Dependency order means a single forward sweep closes the set
+        for (int i = 0; i < n; i++) {
+            if (affected[i]) {
+                for (int d : downstream[i]) {
+                    affected[d] = true;
+                }
+            }
+        }
+        int[] count = new int[n];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            if (affected[i]) {
+                size++;
+                for (int d : downstream[i]) {
+                    count[d]++;
+                }
+            }
+        }
+        int[] members = new int[size];
+        int[] waits = new int[size];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (affected[i]) {
+                members[k] = i;
+                waits[k] = count[i];
+                k++;
+            }
+        }
+        return new Shape(members, waits);
+    }
+
+    /**
+     * Checks whether the evaluator has no epoch running and no publish waiting.
+     *
+     * @return true if every published message has been fully propagated
+     */
+    public boolean isIdle() {
+        return !running.get() && inputs.isEmpty();
+    }
+
+    /**
+     * Waits until every message published before the call has been fully propagated.
+     * Publishes made meanwhile by other threads may keep the evaluator busy until the timeout.
+     *
+     * @param timeoutMillis the longest time to wait, in milliseconds
+     * @return true if the evaluator went idle, false if the timeout expired first
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (idleLock) {
+            while (!isIdle()) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) {
+                    return false;
+                }
+                idleLock.wait(left);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Records a message published by an agent of the running epoch, or queues an external publish as a new epoch.
+     *
+     * @param topic the topic the message was published on
+     * @param msg the published message
+     * @param subs the subscribers of the topic
+     */
+    @Override
+    public void dispatch(Topic topic, Message msg, Agent[] subs) {
+        if (isNestedPublish(topic)) {
+            record(topic, msg, subs);
+            return;
+        }
+        inputs.add(new Publish(topic, msg, subs));
+        if (running.compareAndSet(false, true)) {
+            pool.execute(this::nextEpoch);
+        }
+    }
+
+    /**
+     * Checks whether a publish was made by an agent of the running epoch on a pool worker.
+     *
+     * @param topic the topic the message was published on
+     * @return true if the message belongs to the running epoch
+     */
+    @Override
+    boolean isNestedPublish(Topic topic) {
+        return inEpoch && plan.isInternal(topic) && ForkJoinTask.getPool() == pool;
+    }
+
+    /**
+     * Starts the epoch of the oldest queued publish, skipping publishes that change nothing.
+     * Gives up the running flag when the queue is empty, rechecking it so a concurrent publish is not stranded.
+     */
+    private void nextEpoch() {
+        while (true) {
+            Publish p = inputs.poll();
+            if (p == null) {
+                inEpoch = false;
+                running.set(false);
+                if (inputs.isEmpty() || !running.compareAndSet(false, true)) {
+                    synchronized (idleLock) {
+                        idleLock.notifyAll();
+                    }
+                    return;
+                }
+                continue;
+            }
+            inEpoch = true;
+            if (!record(p.topic, p.msg, p.subs)) {
+                countPruned(p.topic);
+                continue;
+            }
+            countPass();
+            Shape shape = shape(p.topic);
+            int[] members = shape.members;
+            int[] waits = shape.waits;
+            remaining.set(members.length);
+            for (int k = 0; k < members.length; k++) {
+                countdown.set(members[k], waits[k]);
+            }
+            for (int k = 0; k < members.length; k++) {
+                if (waits[k] == 0) {
+                    int i = members[k];
+                    pool.execute(() -> settle(i));
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * Runs one affected agent if any of its inputs changed, then releases the agents waiting for it.
+     * One released agent is run next on this worker instead of being queued, so a chain of agents settles in a
+     * loop without growing the stack. The last agent of the epoch to settle starts the next epoch.
+     * An agent that throws still releases its downstream agents, so the epoch ends; the first failure is
+     * rethrown once this worker is done.
+     *
+     * @param first the position of the agent
+     */
+    private void settle(int first) {
+        Throwable failure = null;
+        int i = first;
+        while (true) {
+            try {
+                if (isDirty(i)) {
+                    evaluate(i);
+                }
+            } catch (RuntimeException | Error e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+            int ready = -1;
+            for (int d : downstream[i]) {
+                if (countdown.decrementAndGet(d) == 0) {
+                    if (ready >= 0) {
+                        int r = ready;
+                        pool.execute(() -> settle(r));
+                    }
+                    ready = d;
+                }
+            }
+            if (remaining.decrementAndGet() == 0) {
+                nextEpoch();
+                break;
+            }
+            if (ready < 0) {
+                break;
+            }
+            i = ready;
+        }
+        if (failure instanceof RuntimeException e) {
+            throw e;
+        }
+        if (failure != null) {
+            throw (Error) failure;
+        }
+    }
+
+    /**
+     * Gives the fan-out of the topics back to the topics and drops the publishes that have not started.
+     */
+    @Override
+    public void close() {
+        inputs.clear();
+        if (context != null) {
+            context.unregister(this);
+        }
+        super.close();
+    }
+
+    /**
+     * The agents affected by a publish on one topic, and how many affected agents each one waits for.
+     */
+    private static class Shape {
+        final int[] members;
+        final int[] waits;
+
+        Shape(int[] members, int[] waits) {
+            this.members = members;
+            this.waits = waits;
+        }
+    }
+
+    /**
+     * A publish on an external topic, waiting for its epoch.
+     */
+    private static class Publish {
+        final Topic topic;
+        final Message msg;
+        final Agent[] subs;
+
+        Publish(Topic topic, Message msg, Agent[] subs) {
+            this.topic = topic;
+            this.msg = msg;
+            this.subs = subs;
+        }
+    }
+}
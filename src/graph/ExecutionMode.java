@@ -0,0 +1,111 @@
+package graph;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The ExecutionMode enum selects how the agents of a graph are scheduled.
+ * The pooled modes share one executor between all agents, so the thread count follows the
+ * number of cores instead of the number of agents. The remaining modes do not wrap agents in
+ * ParallelAgents at all; an engine runs the whole graph instead.
+ */
+public enum ExecutionMode {
+    /** Every agent owns a dedicated platform thread (the original behavior). */
+    THREAD_PER_AGENT("thread"),
+    /** All agents run on one shared work-stealing fork/join pool. */
+    FORK_JOIN("forkjoin"),
+    /** All agents run on virtual threads, falling back to the fork/join pool on JDKs without them. */
+    VIRTUAL_THREADS("virtual"),
+    /** Agents run synchronously in topological order on the publisher's thread, see {@link DagEvaluator}. */
+    SYNC_DAG("sync"),
+    /** Agents run level by level, with wide levels forked onto the fork/join pool, see {@link LevelParallelEvaluator}. */
+    PARALLEL_DAG("levels"),
+    /** Agents run asynchronously on the fork/join pool, one glitch-free epoch per external publish, see {@link EpochEvaluator}. */
+    EPOCH("epoch");
+
+    private final String key;
+
+    ExecutionMode(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Returns the short name used for this mode in configuration files.
+     *
+     * @return the configuration key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Checks whether agents are wrapped in ParallelAgents in this mode, rather than run by a graph engine.
+     *
+     * @return true for the per-agent scheduling modes
+     */
+    public boolean wrapsAgents() {
+        return this == THREAD_PER_AGENT || this == FORK_JOIN || this == VIRTUAL_THREADS;
+    }
+
+    /**
+     * Returns the shared executor for this mode, or null if the mode has none.
+     *
+     * @return the shared executor
+     */
+    public Executor executor() {
+        return switch (this) {
+            case THREAD_PER_AGENT, SYNC_DAG -> null;
+            case FORK_JOIN, PARALLEL_DAG, EPOCH -> ForkJoinHolder.POOL;
+            case VIRTUAL_THREADS -> VirtualHolder.EXECUTOR;
+        };
+    }
+
+    /**
+     * Parses an execution mode from its configuration key or enum name, ignoring case.
+     *
+     * @param value the text to parse
+     * @return the matching execution mode
+     * @throws IllegalArgumentException if no mode matches
+     */
+    public static ExecutionMode fromKey(String value) {
+        String trimmed = value.trim();
+        for (ExecutionMode mode : values()) {
+            if (mode.key.equalsIgnoreCase(trimmed) || mode.name().equalsIgnoreCase(trimmed)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported execution mode: " + value);
+    }
+
+    /**
+     * Holder for the shared fork/join pool, created on first use.
+     * The pool runs in FIFO mode, which suits message-driven tasks that are never joined.
+     */
+    private static class ForkJoinHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    /**
+     * Holder for the shared virtual thread executor, created on first use.
+     */
+    private static class VirtualHolder {
+        static final Executor EXECUTOR = createVirtualExecutor();
+
+        /**
+         * Creates a virtual-thread-per-task executor through reflection, so the code still runs on JDKs without Loom.
+         *
+         * @return the virtual thread executor, or the fork/join pool if virtual threads are unavailable
+         */
+        private static Executor createVirtualExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+                System.err.println("Virtual threads are not available, using the fork/join pool instead");
+                return ForkJoinHolder.POOL;
+            }
+        }
+    }
+}
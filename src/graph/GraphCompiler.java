@@ -0,0 +1,219 @@
+package graph;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The GraphCompiler class fuses an acyclic graph of agents with scalar kernels into a single function.
+ * Every topic gets a slot in a register array; each agent becomes one step that reads its input slots, applies
+ * its kernel and writes its output slot, and the steps are chained in topological order into one method handle.
+ * The result involves no messages, topics or callbacks, so the JIT can inline the whole graph, and every agent
+ * runs exactly once per evaluation even in diamond-shaped graphs.
+ * Compiled graphs do not keep the agents or topics, so they can be cached by configuration content and reused.
+ */
+public final class GraphCompiler {
+    private static final int CACHE_SIZE = 16;
+    private static final MethodHandle GET = MethodHandles.arrayElementGetter(double[].class);
+    private static final MethodHandle SET = MethodHandles.arrayElementSetter(double[].class);
+    private static final Map<String, CompiledGraph> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledGraph> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private GraphCompiler() {
+    }
+
+    /**
+     * Compiles the agents, or returns the graph compiled earlier for the same key.
+     *
+     * @param agents the agents to compile
+     * @param key identifies the graph, e.g. the content of the configuration it was loaded from
+     * @return the compiled graph
+     * @throws IllegalStateException if an agent has no scalar kernel, or the agents form a cycle
+     */
+    public static CompiledGraph compile(Collection<? extends ColumnarAgent> agents, String key) {
+        synchronized (CACHE) {
+            CompiledGraph cached = CACHE.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        CompiledGraph compiled = compile(agents);
+        synchronized (CACHE) {
+            CACHE.putIfAbsent(key, compiled);
+            return CACHE.get(key);
+        }
+    }
+
+    /**
+     * Compiles the agents into one function from the input topics to the topics they publish.
+     *
+     * @param agents the agents to compile
+     * @return the compiled graph
+     * @throws IllegalStateException if an agent has no scalar kernel, or the agents form a cycle
+     */
+    public static CompiledGraph compile(Collection<? extends ColumnarAgent> agents) {
+        GraphPlan plan = GraphPlan.fromDeclaredTopics(agents);
+        int[] slot = new int[plan.maxTopicId() + 1];
+        List<String> inputNames = new ArrayList<>();
+        List<String> outputNames = new ArrayList<>();
+        List<Integer> inputSlots = new ArrayList<>();
+        List<Integer> outputSlots = new ArrayList<>();
+        int slots = 0;
+        for (Topic topic : plan.getTopics()) {
+            slot[topic.id] = slots;
+            if (plan.isInternal(topic)) {
+                outputNames.add(topic.name);
+                outputSlots.add(slots);
+            } else {
+                inputNames.add(topic.name);
+                inputSlots.add(slots);
+            }
+            slots++;
+        }
+
+        MethodHandle program = MethodHandles.empty(MethodType.methodType(void.class, double[].class));
+        for (int i = plan.size() - 1; i >= 0; i--) {
+            program = MethodHandles.foldArguments(program, step((ColumnarAgent) plan.getAgent(i), slot));
+        }
+        return new CompiledGraph(program, slots,
+                inputNames.toArray(new String[0]), toArray(inputSlots),
+                outputNames.toArray(new String[0]), toArray(outputSlots));
+    }
+
+    /**
+     * Builds the step of one agent: a handle taking the register array that stores the kernel result in the
+     * output slot.
+     *
+     * @param agent the agent
+     * @param slot the register slot of every topic, by topic id
+     * @return the step handle of type {@code (double[])void}
+     */
+    private static MethodHandle step(ColumnarAgent agent, int[] slot) {
+        MethodHandle kernel = agent.getScalarKernel();
+        Topic[] in = agent.getInputTopics();
+        Topic[] out = agent.getOutputTopics();
+        if (kernel == null || out.length != 1) {
+            throw new IllegalStateException("Agent " + agent.getName() + " cannot be compiled");
+        }
+        MethodType expected = MethodType.methodType(double.class, doubles(in.length));
+        if (!kernel.type().equals(expected)) {
+            throw new IllegalStateException("The kernel of agent " + agent.getName() + " has type " + kernel.type()
+                    + " instead of " + expected);
+        }
+        MethodHandle[] getters = new MethodHandle[in.length];
+        for (int j = 0; j < in.length; j++) {
+            getters[j] = MethodHandles.insertArguments(GET, 1, slot[in[j].id]);
+        }
+        // (double[], ..., double[])double, then collapsed to a single register array argument
+        MethodHandle value = MethodHandles.filterArguments(kernel, 0, getters);
+        value = MethodHandles.permuteArguments(value, MethodType.methodType(double.class, double[].class),
+                new int[in.length]);
+        // (double, double[])void, so the value computed by the fold comes first
+        MethodHandle store = MethodHandles.insertArguments(SET, 1, slot[out[0].id]);
+        store = MethodHandles.permuteArguments(store,
+                MethodType.methodType(void.class, double.class, double[].class), 1, 0);
+        return MethodHandles.foldArguments(store, value);
+    }
+
+    /**
+     * Returns an array of {@code count} double classes.
+     *
+     * @param count the number of parameters
+     * @return the parameter types
+     */
+    private static Class<?>[] doubles(int count) {
+        Class<?>[] types = new Class<?>[count];
+        Arrays.fill(types, double.class);
+        return types;
+    }
+
+    /**
+     * Unboxes a list of slots.
+     *
+     * @param values the slots
+     * @return the slots as an array
+     */
+    private static int[] toArray(List<Integer> values) {
+        return values.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * A graph compiled into one function from the values of its input topics to the values of its output topics.
+     * Instances are immutable and can be evaluated from several threads at once.
+     */
+    public static final class CompiledGraph {
+        private final MethodHandle program;
+        private final int slots;
+        private final String[] inputNames;
+        private final int[] inputSlots;
+        private final String[] outputNames;
+        private final int[] outputSlots;
+
+        CompiledGraph(MethodHandle program, int slots, String[] inputNames, int[] inputSlots,
+                      String[] outputNames, int[] outputSlots) {
+            this.program = program;
+            this.slots = slots;
+            this.inputNames = inputNames;
+            this.inputSlots = inputSlots;
+            this.outputNames = outputNames;
+            this.outputSlots = outputSlots;
+        }
+
+        /**
+         * Returns the names of the input topics, in the order {@link #evaluate(double...)} expects their values.
+         *
+         * @return the input topic names
+         */
+        public String[] getInputNames() {
+            return inputNames.clone();
+        }
+
+        /**
+         * Returns the names of the computed topics, in the order {@link #evaluate(double...)} returns their values.
+         *
+         * @return the output topic names
+         */
+        public String[] getOutputNames() {
+            return outputNames.clone();
+        }
+
+        /**
+         * Evaluates the graph for one set of input values.
+         *
+         * @param inputs one value per input topic, in the order of {@link #getInputNames()}
+         * @return one value per computed topic, in the order of {@link #getOutputNames()}
+         * @throws IllegalArgumentException if the number of inputs is wrong
+         */
+        public double[] evaluate(double... inputs) {
+            if (inputs.length != inputSlots.length) {
+                throw new IllegalArgumentException("Expected " + inputSlots.length + " inputs, got " + inputs.length);
+            }
+            double[] registers = new double[slots];
+            for (int i = 0; i < inputs.length; i++) {
+                registers[inputSlots[i]] = inputs[i];
+            }
+            try {
+                program.invokeExact(registers);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+            double[] outputs = new double[outputSlots.length];
+            for (int i = 0; i < outputs.length; i++) {
+                outputs[i] = registers[outputSlots[i]];
+            }
+            return outputs;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package graph;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import graph.TopicManagerSingleton.TopicManager;
+
+/**
+ * The GraphContext class holds everything one graph instance shares: its topic registry, the pool its
+ * agents are scheduled on and, optionally, the {@link Journal} of the messages published into it. Agents and configurations created with different contexts do not share topics,
+ * so independent graphs (per customer, per scenario) can run side by side in one JVM without seeing or
+ * contending on each other's topics.
+ * The default context wraps {@link TopicManagerSingleton} and the shared pools, which is what the constructors
+ * without a context use.
+ */
+public class GraphContext {
+    private static final GraphContext DEFAULT = new GraphContext(TopicManagerSingleton.get(), null);
+
+    private final TopicManager topicManager;
+    private final ForkJoinPool pool;
+    private volatile Journal journal;
+    // The open queued agents and epoch evaluators, checked by awaitSettled
+    private final Set<ParallelAgent> agents = ConcurrentHashMap.newKeySet();
+    private final Set<EpochEvaluator> evaluators = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a context with its own topic registry, scheduled on the shared pools.
+     */
+    public GraphContext() {
+        this(new TopicManager(), null);
+    }
+
+    /**
+     * Creates a context with its own topic registry and its own fork/join pool.
+     *
+     * @param pool the pool for the pooled execution modes, or null for the shared pools
+     */
+    public GraphContext(ForkJoinPool pool) {
+        this(new TopicManager(), pool);
+    }
+
+    /**
+     * Creates a context from a topic registry and a pool.
+     *
+     * @param topicManager the topic registry
+     * @param pool the pool for the pooled execution modes, or null for the shared pools
+     */
+    public GraphContext(TopicManager topicManager, ForkJoinPool pool) {
+        this.topicManager = topicManager;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the context backed by {@link TopicManagerSingleton}.
+     *
+     * @return the default context
+     */
+    public static GraphContext getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the topic registry of this context.
+     *
+     * @return the topic manager
+     */
+    public TopicManager getTopicManager() {
+        return topicManager;
+    }
+
+    /**
+     * Gets or creates a topic of this context.
+     *
+     * @param name the name of the topic
+     * @return the topic
+     */
+    public Topic getTopic(String name) {
+        return topicManager.getTopic(name);
+    }
+
+    /**
+     * Sets the journal that records the messages published through {@link #publish(String, Message)}.
+     *
+     * @param journal the journal, or null to stop recording
+     */
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Returns the journal of this context.
+     *
+     * @return the journal, or null if publishes are not recorded
+     */
+    public Journal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Publishes a message from outside the graph, recording it in the journal first if there is one.
+     *
+     * @param name the name of the topic
+     * @param msg the message
+     */
+    public void publish(String name, Message msg) {
+        Topic topic = getTopic(name);
+        Journal j = this.journal;
+        if (j != null) {
+            j.append(topic, msg);
+        }
+        topic.publish(msg);
+    }
+
+    /**
+     * Waits until the queued agents of this context have handled every message queued for them, including the
+     * messages they publish to each other, and its epoch evaluators have run every queued epoch, so the values of
+     * downstream topics reflect the publishes made before the call. Publishes made meanwhile by other threads may
+     * keep the graph busy until the timeout.
+     *
+     * @param timeoutMillis the longest time to wait, in milliseconds
+     * @return true if the graph settled, false if the timeout expired first
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean awaitSettled(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (EpochEvaluator evaluator : evaluators) {
+            if (!evaluator.awaitIdle(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))) {
+                return false;
+            }
+        }
+        long previous = -1;
+        int previousSize = -1;
+        while (true) {
+            // Settled once two sweeps in a row find every agent idle and no message queued in between: a message
+            // moving from one agent to another would have raised the total of the second sweep
+            long total = 0;
+            boolean idle = true;
+            for (ParallelAgent agent : agents) {
+                idle &= agent.isIdle();
+                total += agent.getQueuedCount();
+            }
+            for (EpochEvaluator evaluator : evaluators) {
+                idle &= evaluator.isIdle();
+            }
+            if (idle && total == previous && agents.size() == previousSize) {
+                return true;
+            }
+            previous = idle ? total : -1;
+            previousSize = agents.size();
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            if (!idle) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    /**
+     * Registers an agent whose messages go through a queue, so {@link #awaitSettled(long)} waits for it.
+     *
+     * @param agent the agent
+     */
+    void register(ParallelAgent agent) {
+        agents.add(agent);
+    }
+
+    /**
+     * Stops waiting for a closed agent.
+     *
+     * @param agent the agent
+     */
+    void unregister(ParallelAgent agent) {
+        agents.remove(agent);
+    }
+
+    /**
+     * Registers an evaluator that runs epochs asynchronously, so {@link #awaitSettled(long)} waits for it.
+     *
+     * @param evaluator the evaluator
+     */
+    void register(EpochEvaluator evaluator) {
+        evaluators.add(evaluator);
+    }
+
+    /**
+     * Stops waiting for a closed evaluator.
+     *
+     * @param evaluator the evaluator
+     */
+    void unregister(EpochEvaluator evaluator) {
+        evaluators.remove(evaluator);
+    }
+
+    /**
+     * Returns the executor the given mode runs on in this context: the context's own pool for the fork/join
+     * based modes if it has one, otherwise the mode's shared executor.
+     *
+     * @param mode the execution mode
+     * @return the executor, or null if the mode has none
+     */
+    public Executor executor(ExecutionMode mode) {
+        if (pool != null && mode.executor() instanceof ForkJoinPool) {
+            return pool;
+        }
+        return mode.executor();
+    }
+}
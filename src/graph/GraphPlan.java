@@ -0,0 +1,382 @@
+package graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import graph.TopicManagerSingleton.TopicManager;
+
+/**
+ * The GraphPlan class is a flattened, topologically sorted view of a set of agents and the topics that connect them.
+ * Agents are numbered in dependency order, so every agent comes after the agents whose output topics it reads.
+ * The plan is a snapshot: it is built from the subscriptions and publisher registrations of the topics at
+ * construction time, and the agents must be registered on the topics directly (not through a ParallelAgent).
+ * Agents are also grouped into levels: an agent's level is one more than the highest level of the agents it
+ * reads from, so agents on the same level never depend on each other.
+ */
+public class GraphPlan {
+    private static final int[] NO_INDICES = new int[0];
+
+    private final Agent[] agents;
+    private final Topic[][] inputs;
+    private final Topic[][] outputs;
+    private final IdentityHashMap<Agent, Integer> indices = new IdentityHashMap<>();
+    private final int[] level;
+    private final int[][] levels;
+    // Indexed by topic id
+    private final Topic[] topics;
+    private final int[][] subscribers;
+    private final boolean[] internal;
+
+    /**
+     * Builds the plan for the given agents from the topics of a TopicManager.
+     *
+     * @param agents the agents to include; other subscribers of the topics are left out
+     * @param topicManager the topics connecting the agents
+     * @throws IllegalStateException if the agents form a cycle
+     */
+    public GraphPlan(Collection<? extends Agent> agents, TopicManager topicManager) {
+        this(Wiring.fromTopics(agents, topicManager));
+    }
+
+    /**
+     * Builds the plan for columnar agents from the topics they declare, rather than from their subscriptions.
+     * This works whether or not the agents are currently wrapped, e.g. in a ParallelAgent.
+     *
+     * @param agents the agents to include
+     * @return the plan
+     * @throws IllegalStateException if the agents form a cycle
+     */
+    public static GraphPlan fromDeclaredTopics(Collection<? extends ColumnarAgent> agents) {
+        return new GraphPlan(Wiring.fromDeclared(agents));
+    }
+
+    /**
+     * Builds the plan from the input and output topics of each agent.
+     *
+     * @param wiring the agents and their topics
+     * @throws IllegalStateException if the agents form a cycle
+     */
+    private GraphPlan(Wiring wiring) {
+        List<Agent> given = wiring.agents;
+        List<List<Topic>> in = wiring.in;
+        List<List<Topic>> out = wiring.out;
+        int n = given.size();
+        int maxId = -1;
+        List<Topic> used = new ArrayList<>();
+        IdentityHashMap<Topic, Boolean> seen = new IdentityHashMap<>();
+        for (int i = 0; i < n; i++) {
+            for (List<Topic> topics : List.of(in.get(i), out.get(i))) {
+                for (Topic topic : topics) {
+                    if (seen.put(topic, Boolean.TRUE) == null) {
+                        used.add(topic);
+                        maxId = Math.max(maxId, topic.id);
+                    }
+                }
+            }
+        }
+
+        // Kahn's algorithm over agent -> agent edges; ties keep the given order
+        IdentityHashMap<Topic, List<Integer>> readers = new IdentityHashMap<>();
+        for (int i = 0; i < n; i++) {
+            for (Topic t : in.get(i)) {
+                readers.computeIfAbsent(t, k -> new ArrayList<>()).add(i);
+            }
+        }
+        int[] missing = new int[n];
+        for (int i = 0; i < n; i++) {
+            for (Topic t : out.get(i)) {
+                for (int reader : readers.getOrDefault(t, List.of())) {
+                    missing[reader]++;
+                }
+            }
+        }
+        ArrayDeque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            if (missing[i] == 0) {
+                ready.add(i);
+            }
+        }
+        int[] order = new int[n];
+        int sorted = 0;
+        while (!ready.isEmpty()) {
+            int i = ready.poll();
+            order[sorted++] = i;
+            for (Topic t : out.get(i)) {
+                for (int reader : readers.getOrDefault(t, List.of())) {
+                    if (--missing[reader] == 0) {
+                        ready.add(reader);
+                    }
+                }
+            }
+        }
+        if (sorted < n) {
+            throw new IllegalStateException("The agents form a cycle and cannot be evaluated in order");
+        }
+
+        this.agents = new Agent[n];
+        this.inputs = new Topic[n][];
+        this.outputs = new Topic[n][];
+        for (int k = 0; k < n; k++) {
+            int i = order[k];
+            this.agents[k] = given.get(i);
+            this.inputs[k] = in.get(i).toArray(new Topic[0]);
+            this.outputs[k] = out.get(i).toArray(new Topic[0]);
+            this.indices.put(given.get(i), k);
+        }
+
+        this.topics = new Topic[maxId + 1];
+        this.subscribers = new int[maxId + 1][];
+        this.internal = new boolean[maxId + 1];
+        List<List<Integer>> subs = new ArrayList<>();
+        for (int id = 0; id <= maxId; id++) {
+            subs.add(new ArrayList<>());
+        }
+        for (Topic t : used) {
+            topics[t.id] = t;
+        }
+        for (int k = 0; k < n; k++) {
+            for (Topic t : inputs[k]) {
+                subs.get(t.id).add(k);
+            }
+            for (Topic t : outputs[k]) {
+                internal[t.id] = true;
+            }
+        }
+        for (int id = 0; id <= maxId; id++) {
+            subscribers[id] = subs.get(id).stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        // Producers come first in dependency order, so one sweep settles every level
+        this.level = new int[n];
+        int[] topicLevel = new int[maxId + 1];
+        int levelCount = 0;
+        for (int k = 0; k < n; k++) {
+            for (Topic t : inputs[k]) {
+                level[k] = Math.max(level[k], topicLevel[t.id]);
+            }
+            for (Topic t : outputs[k]) {
+                topicLevel[t.id] = Math.max(topicLevel[t.id], level[k] + 1);
+            }
+            levelCount = Math.max(levelCount, level[k] + 1);
+        }
+        int[] width = new int[levelCount];
+        for (int k = 0; k < n; k++) {
+            width[level[k]]++;
+        }
+        this.levels = new int[levelCount][];
+        for (int l = 0; l < levelCount; l++) {
+            levels[l] = new int[width[l]];
+            width[l] = 0;
+        }
+        for (int k = 0; k < n; k++) {
+            levels[level[k]][width[level[k]]++] = k;
+        }
+    }
+
+    /**
+     * Returns the number of agents in the plan.
+     *
+     * @return the agent count
+     */
+    public int size() {
+        return agents.length;
+    }
+
+    /**
+     * Returns the agent at the given position in dependency order.
+     *
+     * @param index the position of the agent
+     * @return the agent
+     */
+    public Agent getAgent(int index) {
+        return agents[index];
+    }
+
+    /**
+     * Returns the position of an agent in dependency order.
+     *
+     * @param agent the agent
+     * @return its position, or -1 if the agent is not part of the plan
+     */
+    public int indexOf(Agent agent) {
+        Integer index = indices.get(agent);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the level of the agent at the given position; agents without plan inputs are on level 0.
+     *
+     * @param index the position of the agent
+     * @return the level of the agent
+     */
+    public int getLevel(int index) {
+        return level[index];
+    }
+
+    /**
+     * Returns the number of levels in the plan.
+     *
+     * @return the level count
+     */
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * Returns the positions of the agents on a level, in ascending order.
+     *
+     * @param level the level
+     * @return the agent positions; must not be modified
+     */
+    public int[] getLevelMembers(int level) {
+        return levels[level];
+    }
+
+    /**
+     * Returns the topics the agent at the given position subscribes to.
+     *
+     * @param index the position of the agent
+     * @return the input topics; must not be modified
+     */
+    public Topic[] getInputs(int index) {
+        return inputs[index];
+    }
+
+    /**
+     * Returns the topics the agent at the given position publishes to.
+     *
+     * @param index the position of the agent
+     * @return the output topics; must not be modified
+     */
+    public Topic[] getOutputs(int index) {
+        return outputs[index];
+    }
+
+    /**
+     * Returns the positions of the plan agents subscribed to a topic, in ascending order.
+     *
+     * @param topic the topic
+     * @return the subscriber positions; must not be modified
+     */
+    public int[] getSubscribers(Topic topic) {
+        return topic.id < subscribers.length && subscribers[topic.id] != null ? subscribers[topic.id] : NO_INDICES;
+    }
+
+    /**
+     * Checks whether a topic is published by an agent of the plan, as opposed to being an external input.
+     *
+     * @param topic the topic
+     * @return true if some plan agent publishes to the topic
+     */
+    public boolean isInternal(Topic topic) {
+        return topic.id < internal.length && internal[topic.id];
+    }
+
+    /**
+     * Returns the topics read or written by the agents of the plan.
+     *
+     * @return the topics used by the plan
+     */
+    public List<Topic> getTopics() {
+        List<Topic> used = new ArrayList<>();
+        for (Topic t : topics) {
+            if (t != null) {
+                used.add(t);
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Returns the largest topic id used by the plan, so callers can size arrays indexed by topic id.
+     *
+     * @return the largest topic id, or -1 if the plan uses no topics
+     */
+    public int maxTopicId() {
+        return topics.length - 1;
+    }
+
+    /**
+     * The agents of a plan with the input and output topics of each, in the order the agents were given.
+     */
+    private static class Wiring {
+        final List<Agent> agents = new ArrayList<>();
+        final List<List<Topic>> in = new ArrayList<>();
+        final List<List<Topic>> out = new ArrayList<>();
+
+        /**
+         * Adds an agent unless it is already there.
+         *
+         * @param position the positions of the agents added so far
+         * @param a the agent
+         * @return true if the agent was added
+         */
+        private boolean add(IdentityHashMap<Agent, Integer> position, Agent a) {
+            if (position.containsKey(a)) {
+                return false;
+            }
+            position.put(a, agents.size());
+            agents.add(a);
+            in.add(new ArrayList<>());
+            out.add(new ArrayList<>());
+            return true;
+        }
+
+        /**
+         * Reads the wiring from the subscriptions and publisher registrations of the topics.
+         *
+         * @param agents the agents
+         * @param topicManager the topics connecting the agents
+         * @return the wiring
+         */
+        static Wiring fromTopics(Collection<? extends Agent> agents, TopicManager topicManager) {
+            Wiring w = new Wiring();
+            IdentityHashMap<Agent, Integer> position = new IdentityHashMap<>();
+            for (Agent a : agents) {
+                w.add(position, a);
+            }
+            for (Topic topic : topicManager.getTopics()) {
+                for (Agent a : topic.getSubs()) {
+                    Integer i = position.get(a);
+                    if (i != null) {
+                        w.in.get(i).add(topic);
+                    }
+                }
+                for (Agent a : topic.getPubs()) {
+                    Integer i = position.get(a);
+                    if (i != null) {
+                        w.out.get(i).add(topic);
+                    }
+                }
+            }
+            return w;
+        }
+
+        /**
+         * Reads the wiring from the topics the columnar agents declare.
+         *
+         * @param agents the agents
+         * @return the wiring
+         */
+        static Wiring fromDeclared(Collection<? extends ColumnarAgent> agents) {
+            Wiring w = new Wiring();
+            IdentityHashMap<Agent, Integer> position = new IdentityHashMap<>();
+            for (ColumnarAgent a : agents) {
+                if (w.add(position, a)) {
+                    int i = position.get(a);
+                    for (Topic t : a.getInputTopics()) {
+                        if (!w.in.get(i).contains(t)) {
+                            w.in.get(i).add(t);
+                        }
+                    }
+                    w.out.get(i).addAll(Arrays.asList(a.getOutputTopics()));
+                }
+            }
+            return w;
+        }
+    }
+}
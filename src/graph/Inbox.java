@@ -0,0 +1,85 @@
+package graph;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Inbox interface is the message buffer between the publishers of a ParallelAgent and its single consumer.
+ * Entries are (topic, message) pairs; the consumer receives them into arrays it owns, so an inbox
+ * does not have to allocate a holder object per message.
+ */
+interface Inbox {
+
+    /**
+     * Adds a message if there is room.
+     *
+     * @param topic the topic of the message
+     * @param msg the message
+     * @return true if the message was added
+     */
+    boolean offer(Topic topic, Message msg);
+
+    /**
+     * Adds a message, waiting up to the given time for room.
+     *
+     * @param topic the topic of the message
+     * @param msg the message
+     * @param timeout how long to wait
+     * @param unit the unit of the timeout
+     * @return true if the message was added
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean offer(Topic topic, Message msg, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Adds a message, waiting as long as necessary for room.
+     *
+     * @param topic the topic of the message
+     * @param msg the message
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void put(Topic topic, Message msg) throws InterruptedException;
+
+    /**
+     * Removes and discards the oldest message, if the inbox supports it.
+     *
+     * @return true if a message was discarded
+     * @throws UnsupportedOperationException if only the consumer may remove messages
+     */
+    boolean dropOldest();
+
+    /**
+     * Moves up to {@code max} messages into the given arrays without waiting. Called by the consumer only.
+     *
+     * @param topics receives the topics
+     * @param msgs receives the messages
+     * @param max the maximum number of messages to move
+     * @return the number of messages moved
+     */
+    int drain(Topic[] topics, Message[] msgs, int max);
+
+    /**
+     * Moves up to {@code max} messages into the given arrays, waiting until there is at least one.
+     * Called by the consumer only.
+     *
+     * @param topics receives the topics
+     * @param msgs receives the messages
+     * @param max the maximum number of messages to move
+     * @return the number of messages moved, at least 1
+     * @throws InterruptedException if interrupted while waiting
+     */
+    int take(Topic[] topics, Message[] msgs, int max) throws InterruptedException;
+
+    /**
+     * Checks whether there is nothing to consume.
+     *
+     * @return true if the inbox is empty
+     */
+    boolean isEmpty();
+
+    /**
+     * Returns the number of messages the inbox can hold.
+     *
+     * @return the capacity
+     */
+    int capacity();
+}
@@ -0,0 +1,57 @@
+package graph;
+
+/**
+ * The InboxType enum selects the data structure that buffers messages for a ParallelAgent.
+ */
+public enum InboxType {
+    /** A lock-based ArrayBlockingQueue (the original behavior). */
+    QUEUE("queue"),
+    /** A preallocated lock-free multi-producer/single-consumer ring buffer. */
+    RING("ring");
+
+    private final String key;
+
+    InboxType(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Returns the short name used for this inbox type in configuration files.
+     *
+     * @return the configuration key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Creates an empty inbox of this type.
+     *
+     * @param capacity the number of messages the inbox can hold
+     * @param wait how threads wait on a ring buffer inbox
+     * @return the new inbox
+     */
+    Inbox create(int capacity, WaitStrategy wait) {
+        return switch (this) {
+            case QUEUE -> new QueueInbox(capacity);
+            case RING -> new RingBufferInbox(capacity, wait);
+        };
+    }
+
+    /**
+     * Parses an inbox type from its configuration key or enum name, ignoring case.
+     *
+     * @param value the text to parse
+     * @return the matching inbox type
+     * @throws IllegalArgumentException if no type matches
+     */
+    public static InboxType fromKey(String value) {
+        String trimmed = value.trim();
+        for (InboxType type : values()) {
+            if (type.key.equalsIgnoreCase(trimmed) || type.name().equalsIgnoreCase(trimmed)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported inbox type: " + value);
+    }
+}
@@ -0,0 +1,509 @@
+package graph;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * The Journal class is an append-only write-ahead log of the messages published into a graph from outside.
+ * Every record holds a sequence number, the topic id, the value and the wall-clock time of the publish.
+ * Publishers only encode their record into a memory buffer; a committer thread writes the buffered records
+ * as one frame every few milliseconds (a group commit) and forces it to disk according to the {@link SyncPolicy}.
+ * <p>
+ * The journal is a directory of segment files named after the first sequence number they hold. A segment is
+ * closed once it grows past the segment size. Each frame carries its length and a CRC32, so a frame torn by a
+ * crash is recognised and ignored on reading. Topic names are written once per segment, and again whenever an id
+ * is reused for another topic, so every segment can be read on its own.
+ * <p>
+ * A commit that fails leaves a gap in the journal, so the journal stops there: the failure is reported to every
+ * later append and to the publishers waiting for the failed commit.
+ */
+public class Journal implements Closeable {
+    /** The default size after which a segment is closed and a new one started. */
+    public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+    /** The default time between group commits, in milliseconds. */
+    public static final long DEFAULT_FLUSH_MILLIS = 5;
+
+    private static final String SUFFIX = ".journal";
+    private static final int FRAME_HEADER = 4 + 4;
+    private static final byte DEFINE = 0;
+    private static final byte NUMBER = 1;
+    private static final byte TEXT = 2;
+
+    private final Path dir;
+    private final SyncPolicy sync;
+    private final long flushMillis;
+    private final long segmentSize;
+
+    // Guards the pending buffer, the sequence numbers and the topic names
+    private final Object lock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocate(64 << 10);
+    private ByteBuffer spare = ByteBuffer.allocate(64 << 10);
+    private final Map<Integer, String> names = new HashMap<>();
+    private long nextSeq;
+    private long durableSeq;
+    // The error of the first failed commit, after which nothing more is written
+    private IOException failure;
+    private volatile boolean closed = false;
+
+    // Guards the segment; held across a whole commit so frames reach the file in sequence order
+    private final Object commitLock = new Object();
+    private FileChannel segment;
+    private long segmentBytes;
+    private final CRC32 crc = new CRC32();
+    private final Thread committer;
+
+    /**
+     * Opens a journal with group commits every {@value #DEFAULT_FLUSH_MILLIS} ms, each forced to disk.
+     *
+     * @param dir the journal directory; created if missing
+     * @throws IOException if the journal cannot be opened
+     */
+    public Journal(Path dir) throws IOException {
+        this(dir, SyncPolicy.GROUP, DEFAULT_FLUSH_MILLIS, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a journal. Existing segments are kept; numbering continues after the last record found in them,
+     * in a new segment.
+     *
+     * @param dir the journal directory; created if missing
+     * @param sync when group commits are forced to disk
+     * @param flushMillis the time between group commits, in milliseconds
+     * @param segmentSize the size after which a segment is closed, in bytes
+     * @throws IOException if the journal cannot be opened
+     * @throws IllegalArgumentException if the flush time or segment size is not positive
+     */
+    public Journal(Path dir, SyncPolicy sync, long flushMillis, long segmentSize) throws IOException {
+        if (flushMillis < 1 || segmentSize < 1) {
+            throw new IllegalArgumentException("flushMillis and segmentSize must be positive");
+        }
+        this.dir = dir;
+        this.sync = sync;
+        this.flushMillis = flushMillis;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(dir);
+        List<Path> segments = segments(dir);
+        long last = 0;
+        for (int i = segments.size() - 1; i >= 0 && last == 0; i--) {
+            long[] max = {0};
+            readSegment(segments.get(i), (seq, topic, msg, timestamp) -> max[0] = seq);
+            last = max[0];
+        }
+        this.nextSeq = last + 1;
+        this.durableSeq = last;
+        synchronized (commitLock) {
+            roll(nextSeq);
+        }
+        this.committer = new Thread(this::run, "journal-" + dir.getFileName());
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Appends the publish of a message. The record is written by the next group commit; with
+     * {@link SyncPolicy#ALWAYS} the call only returns once that commit is on disk.
+     *
+     * @param topic the topic the message is published on
+     * @param msg the message
+     * @return the sequence number of the record
+     * @throws IllegalStateException if the journal is closed
+     * @throws UncheckedIOException if a commit has failed, including the commit of this record
+     */
+    public long append(Topic topic, Message msg) {
+        boolean number = !Double.isNaN(msg.asDouble);
+        byte[] text = number ? null : msg.getText().getBytes(StandardCharsets.UTF_8);
+        long timestamp = System.currentTimeMillis();
+        long seq;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("Journal commit failed", failure);
+            }
+            // Ids are reused once the topics are cleared, so a new name for a known id is defined again
+            if (!topic.name.equals(names.get(topic.id))) {
+                names.put(topic.id, topic.name);
+                byte[] name = topic.name.getBytes(StandardCharsets.UTF_8);
+                ensure(1 + 4 + 4 + name.length);
+                putDefine(pending, topic.id, name);
+            }
+            seq = nextSeq++;
+            ensure(1 + 8 + 4 + 8 + (number ? 8 : 4 + text.length));
+            pending.put(number ? NUMBER : TEXT);
+            pending.putLong(seq);
+            pending.putInt(topic.id);
+            pending.putLong(timestamp);
+            if (number) {
+                pending.putDouble(msg.asDouble);
+            } else {
+                pending.putInt(text.length);
+                pending.put(text);
+            }
+            if (sync == SyncPolicy.ALWAYS) {
+                // Wake the committer now; appenders arriving during its write join the next group
+                lock.notifyAll();
+                while (durableSeq < seq && !closed && failure == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                if (durableSeq < seq && failure != null) {
+                    throw new UncheckedIOException("Journal commit failed", failure);
+                }
+            }
+        }
+        return seq;
+    }
+
+    /**
+     * Returns the sequence number of the last record appended.
+     *
+     * @return the last sequence number, or 0 if the journal is empty
+     */
+    public long getSequence() {
+        synchronized (lock) {
+            return nextSeq - 1;
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last record written by a group commit.
+     *
+     * @return the last committed sequence number
+     */
+    public long getCommittedSequence() {
+        synchronized (lock) {
+            return durableSeq;
+        }
+    }
+
+    /**
+     * Writes the pending records now, as one group commit.
+     *
+     * @throws IOException if the records cannot be written
+     */
+    public void flush() throws IOException {
+        commit();
+    }
+
+    /**
+     * Makes sure the pending buffer has room for a record, growing it if needed.
+     *
+     * @param bytes the size of the record
+     */
+    private void ensure(int bytes) {
+        if (pending.remaining() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+    }
+
+    /**
+     * Runs the group commits until the journal is closed.
+     */
+    private void run() {
+        while (!closed) {
+            synchronized (lock) {
+                if (pending.position() == 0 || sync != SyncPolicy.ALWAYS) {
+                    try {
+                        lock.wait(flushMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            try {
+                commit();
+            } catch (IOException e) {
+                System.err.println("Journal commit failed: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes the records appended so far as one frame, forces it if the policy asks for it, and releases
+     * the publishers waiting for it. Starts a new segment when the current one is full. A failure is recorded,
+     * failing the waiting publishers and every later commit.
+     *
+     * @throws IOException if the frame cannot be written, or an earlier commit failed
+     */
+    private void commit() throws IOException {
+        synchronized (commitLock) {
+            ByteBuffer batch;
+            long last;
+            synchronized (lock) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (pending.position() == 0) {
+                    return;
+                }
+                batch = pending;
+                pending = spare;
+                spare = batch;
+                last = nextSeq - 1;
+            }
+            batch.flip();
+            try {
+                writeFrame(batch);
+                if (sync != SyncPolicy.NONE) {
+                    segment.force(false);
+                }
+            } catch (IOException e) {
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                throw e;
+            } finally {
+                batch.clear();
+            }
+            synchronized (lock) {
+                durableSeq = last;
+                lock.notifyAll();
+            }
+            if (segmentBytes >= segmentSize) {
+                roll(last + 1);
+            }
+        }
+    }
+
+    /**
+     * Writes one frame: its length, the CRC32 of its payload and the payload.
+     *
+     * @param payload the records of the frame
+     * @throws IOException if the frame cannot be written
+     */
+    private void writeFrame(ByteBuffer payload) throws IOException {
+        crc.reset();
+        crc.update(payload.duplicate());
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER);
+        header.putInt(payload.remaining());
+        header.putInt((int) crc.getValue());
+        header.flip();
+        segmentBytes += FRAME_HEADER + payload.remaining();
+        ByteBuffer[] frame = {header, payload};
+        while (payload.hasRemaining()) {
+            segment.write(frame);
+        }
+    }
+
+    /**
+     * Closes the current segment and starts a new one, which opens with the names of all known topics.
+     *
+     * @param firstSeq the sequence number of the first record of the new segment
+     * @throws IOException if the segment cannot be created
+     */
+    private void roll(long firstSeq) throws IOException {
+        if (segment != null) {
+            segment.close();
+        }
+        Path file = dir.resolve(String.format("%020d%s", firstSeq, SUFFIX));
+        segment = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        segmentBytes = 0;
+        ByteBuffer defines;
+        synchronized (lock) {
+            int size = 0;
+            for (String name : names.values()) {
+                size += 1 + 4 + 4 + name.getBytes(StandardCharsets.UTF_8).length;
+            }
+            defines = ByteBuffer.allocate(size);
+            for (Map.Entry<Integer, String> e : names.entrySet()) {
+                putDefine(defines, e.getKey(), e.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        if (defines.position() > 0) {
+            defines.flip();
+            writeFrame(defines);
+        }
+    }
+
+    /**
+     * Encodes the definition of a topic name.
+     *
+     * @param buf the buffer
+     * @param id the topic id
+     * @param name the topic name
+     */
+    private static void putDefine(ByteBuffer buf, int id, byte[] name) {
+        buf.put(DEFINE);
+        buf.putInt(id);
+        buf.putInt(name.length);
+        buf.put(name);
+    }
+
+    /**
+     * Stops the committer, writes the pending records and closes the current segment.
+     * Publishers still waiting for a commit are released.
+     *
+     * @throws IOException if the last records cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (commitLock) {
+            try {
+                commit();
+                segment.force(true);
+            } finally {
+                segment.close();
+            }
+        }
+    }
+
+    /**
+     * Receives the records of a journal in sequence order.
+     */
+    public interface Visitor {
+        /**
+         * Handles one record.
+         *
+         * @param seq the sequence number
+         * @param topic the name of the topic
+         * @param msg the published message
+         * @param timestamp the wall-clock time of the publish, in milliseconds
+         */
+        void record(long seq, String topic, Message msg, long timestamp);
+    }
+
+    /**
+     * Reads every record of a journal directory in order. A torn or corrupt frame ends its segment.
+     *
+     * @param dir the journal directory
+     * @param visitor receives the records
+     * @return the number of records read
+     * @throws IOException if a segment cannot be read
+     */
+    public static long read(Path dir, Visitor visitor) throws IOException {
+        long count = 0;
+        for (Path file : segments(dir)) {
+            count += readSegment(file, visitor);
+        }
+        return count;
+    }
+
+    /**
+     * Publishes every record of a journal directory on the topics of a graph, as fast as the graph accepts them.
+     *
+     * @param dir the journal directory
+     * @param context the graph to feed
+     * @return the number of messages published
+     * @throws IOException if a segment cannot be read
+     */
+    public static long replay(Path dir, GraphContext context) throws IOException {
+        return read(dir, (seq, topic, msg, timestamp) -> context.getTopic(topic).publish(msg));
+    }
+
+    /**
+     * Lists the segments of a journal directory in sequence order.
+     *
+     * @param dir the journal directory
+     * @return the segment files
+     * @throws IOException if the directory cannot be listed
+     */
+    private static List<Path> segments(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            // Zero-padded names sort in sequence order
+            return files.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+    }
+
+    /**
+     * Reads the records of one segment through a memory mapping.
+     *
+     * @param file the segment
+     * @param visitor receives the records
+     * @return the number of records read
+     * @throws IOException if the segment cannot be read
+     */
+    private static long readSegment(Path file, Visitor visitor) throws IOException {
+        long count = 0;
+        Map<Integer, String> names = new HashMap<>();
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buf.remaining() >= FRAME_HEADER) {
+                int length = buf.getInt();
+                int checksum = buf.getInt();
+                if (length < 0 || length > buf.remaining()) {
+                    break;
+                }
+                ByteBuffer frame = buf.slice(buf.position(), length);
+                buf.position(buf.position() + length);
+                crc.reset();
+                crc.update(frame.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                try {
+                    while (frame.hasRemaining()) {
+                        byte type = frame.get();
+                        if (type == DEFINE) {
+                            int id = frame.getInt();
+                            names.put(id, getString(frame));
+                            continue;
+                        }
+                        long seq = frame.getLong();
+                        String topic = names.get(frame.getInt());
+                        long timestamp = frame.getLong();
+                        Message msg = type == NUMBER ? new Message(frame.getDouble()) : new Message(getString(frame));
+                        visitor.record(seq, topic, msg, timestamp);
+                        count++;
+                    }
+                } catch (BufferUnderflowException e) {
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string.
+     *
+     * @param buf the buffer
+     * @return the string
+     */
+    private static String getString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
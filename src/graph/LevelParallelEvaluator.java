@@ -0,0 +1,131 @@
+package graph;
+
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+import graph.TopicManagerSingleton.TopicManager;
+
+/**
+ * The LevelParallelEvaluator class runs an acyclic graph of agents level by level on a fork/join pool.
+ * Agents on the same level of the {@link GraphPlan} never read each other's outputs, so the agents of a level
+ * that have pending inputs are evaluated as parallel tasks, and the next level only starts once all of them
+ * have finished. Levels with fewer pending agents than the fork threshold run inline on the publisher's thread,
+ * where the cost of forking would outweigh the work.
+ */
+public class LevelParallelEvaluator extends DagEvaluator {
+    private final ForkJoinPool pool;
+    private final int forkThreshold;
+    private final int[] scratch;
+    private volatile boolean inPass = false;
+    private final LongAdder forkedLevels = new LongAdder();
+    private final LongAdder inlineLevels = new LongAdder();
+
+    /**
+     * Builds the plan for the given agents and takes over the fan-out of their topics.
+     *
+     * @param agents the agents to evaluate; they must be subscribed to their topics directly
+     * @param topicManager the topics connecting the agents
+     * @param pool the pool running the agents of wide levels
+     * @param forkThreshold the smallest number of pending agents on a level that is worth forking
+     * @throws IllegalStateException if the agents form a cycle
+     */
+    public LevelParallelEvaluator(Collection<? extends Agent> agents, TopicManager topicManager,
+                                  ForkJoinPool pool, int forkThreshold) {
+        super(agents, topicManager);
+        this.pool = pool;
+        this.forkThreshold = Math.max(1, forkThreshold);
+        this.scratch = new int[plan.size()];
+    }
+
+    /**
+     * Returns the number of levels whose agents were evaluated as parallel tasks.
+     *
+     * @return the forked level count
+     */
+    public long getForkedLevelCount() {
+        return forkedLevels.sum();
+    }
+
+    /**
+     * Returns the number of levels whose agents were evaluated inline on the publisher's thread.
+     *
+     * @return the inline level count
+     */
+    public long getInlineLevelCount() {
+        return inlineLevels.sum();
+    }
+
+    /**
+     * Checks whether a publish was made by an agent during the running pass, either inline or on a pool worker.
+     *
+     * @param topic the topic the message was published on
+     * @return true if the message belongs to the running pass
+     */
+    @Override
+    boolean isNestedPublish(Topic topic) {
+        return Thread.holdsLock(this)
+                || (inPass && plan.isInternal(topic) && ForkJoinTask.getPool() == pool);
+    }
+
+    /**
+     * Evaluates the pending agents level by level, forking the wide levels onto the pool.
+     * Joining the tasks of a level makes their recorded outputs visible to the next level.
+     */
+    @Override
+    void runPass() {
+        inPass = true;
+        try {
+            for (int l = 0; l < plan.getLevelCount(); l++) {
+                int count = 0;
+                for (int i : plan.getLevelMembers(l)) {
+                    if (isDirty(i)) {
+                        scratch[count++] = i;
+                    }
+                }
+                if (count == 0) {
+                    continue;
+                }
+                if (count < forkThreshold) {
+                    inlineLevels.increment();
+                    for (int k = 0; k < count; k++) {
+                        evaluate(scratch[k]);
+                    }
+                } else {
+                    forkedLevels.increment();
+                    pool.invoke(new LevelTask(scratch, 0, count));
+                }
+            }
+        } finally {
+            inPass = false;
+        }
+    }
+
+    /**
+     * Evaluates a range of the pending agents of one level, splitting it in halves down to single agents.
+     */
+    private class LevelTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int[] members;
+        private final int from;
+        private final int to;
+
+        LevelTask(int[] members, int from, int to) {
+            this.members = members;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                evaluate(members[from]);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new LevelTask(members, from, mid), new LevelTask(members, mid, to));
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The MemoizingAgent class caches the outputs of a deterministic agent by its input values.
+ * It takes over the subscriptions and publisher registrations of the wrapped agent and remembers the latest
+ * value of every input topic. When all inputs are numeric, the input values form the cache key: on a hit the
+ * cached outputs are published again without calling the agent; on a miss the agent receives every input in
+ * one batch callback and whatever it publishes is stored. The cache holds at most {@code maxSize} entries and
+ * evicts the least recently used one.
+ * Like any agent, it expects its callbacks one at a time, which ParallelAgent and the graph engines guarantee.
+ */
+public class MemoizingAgent implements Agent {
+	private final Agent agent;
+	private final GraphContext context;
+	private final int maxSize;
+	private final Topic[] inputs;
+	private final Topic[] outputs;
+	private final Message[] latest;
+	private final Topic[] feedTopics;
+	private final Message[] feedMsgs;
+	private final Message[] before;
+	private final LinkedHashMap<Key, Message[]> cache;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Constructs a MemoizingAgent around a deterministic agent.
+	 *
+	 * @param agent the agent to be wrapped
+	 * @param maxSize the maximum number of cached input combinations
+	 * @throws IllegalArgumentException if the agent is not deterministic or the size is not positive
+	 */
+	public MemoizingAgent(Agent agent, int maxSize) {
+		this(GraphContext.getDefault(), agent, maxSize);
+	}
+
+	/**
+	 * Constructs a MemoizingAgent around a deterministic agent of the given graph context.
+	 *
+	 * @param context the graph the agent belongs to
+	 * @param agent the agent to be wrapped
+	 * @param maxSize the maximum number of cached input combinations
+	 * @throws IllegalArgumentException if the agent is not deterministic or the size is not positive
+	 */
+	public MemoizingAgent(GraphContext context, Agent agent, int maxSize) {
+		if (!agent.isDeterministic()) {
+			throw new IllegalArgumentException("Agent " + agent.getName() + " is not deterministic and cannot be memoized");
+		}
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("memo must be at least 1: " + maxSize);
+		}
+		this.agent = agent;
+		this.context = context;
+		this.maxSize = maxSize;
+		List<Topic> in = new ArrayList<>();
+		List<Topic> out = new ArrayList<>();
+		for (Topic topic : context.getTopicManager().getTopics()) {
+			if (topic.getSubs().contains(agent)) {
+				topic.unsubscribe(agent);
+				topic.subscribe(this);
+				in.add(topic);
+			}
+			if (topic.getPubs().contains(agent)) {
+				topic.removePublisher(agent);
+				topic.addPublisher(this);
+				out.add(topic);
+			}
+		}
+		this.inputs = in.toArray(new Topic[0]);
+		this.outputs = out.toArray(new Topic[0]);
+		this.latest = new Message[inputs.length];
+		this.feedTopics = new Topic[inputs.length];
+		this.feedMsgs = new Message[inputs.length];
+		this.before = new Message[outputs.length];
+		this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Message[]> eldest) {
+				if (size() > MemoizingAgent.this.maxSize) {
+					evictions.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the name of the wrapped agent.
+	 *
+	 * @return the name of the agent
+	 */
+	@Override
+	public String getName() {
+		return agent.getName();
+	}
+
+	/**
+	 * Resets the wrapped agent and forgets the latest input values. Cached results stay valid and are kept.
+	 */
+	@Override
+	public void reset() {
+		agent.reset();
+		Arrays.fill(latest, null);
+	}
+
+	/**
+	 * Returns the latest value of every input, NaN for an input not received yet or not a number, followed by
+	 * the state of the wrapped agent. Cache hits do not reach the agent, so its own state may lag behind; the
+	 * input values are the ones the next evaluation uses.
+	 *
+	 * @return the input values and the state of the agent
+	 */
+	@Override
+	public double[] getState() {
+		double[] inner = agent.getState();
+		double[] state = new double[latest.length + (inner == null ? 0 : inner.length)];
+		for (int j = 0; j < latest.length; j++) {
+			state[j] = latest[j] == null ? Double.NaN : latest[j].asDouble;
+		}
+		if (inner != null) {
+			System.arraycopy(inner, 0, state, latest.length, inner.length);
+		}
+		return state;
+	}
+
+	/**
+	 * Restores the latest input values and the state of the wrapped agent saved by {@link #getState()}.
+	 * The agent is then fed every restored input on the next evaluation, so a publish on one input is combined
+	 * with the restored values of the others.
+	 *
+	 * @param state the saved state
+	 */
+	@Override
+	public void setState(double[] state) {
+		if (state == null || state.length < latest.length) {
+			return;
+		}
+		for (int j = 0; j < latest.length; j++) {
+			latest[j] = Double.isNaN(state[j]) ? null : new Message(state[j]);
+		}
+		if (state.length > latest.length) {
+			agent.setState(Arrays.copyOfRange(state, latest.length, state.length));
+		}
+	}
+
+	/**
+	 * Returns true: the wrapper publishes exactly what the deterministic agent would.
+	 *
+	 * @return true
+	 */
+	@Override
+	public boolean isDeterministic() {
+		return true;
+	}
+
+	/**
+	 * Returns the number of input combinations served from the cache.
+	 *
+	 * @return the hit count
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of input combinations the wrapped agent had to compute.
+	 *
+	 * @return the miss count
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of cached results evicted to keep the cache within its size.
+	 *
+	 * @return the eviction count
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Callback method that is invoked with a topic name instead of a handle.
+	 *
+	 * @param topic the name of the topic on which the message was received
+	 * @param msg the message received
+	 */
+	@Override
+	public void callback(String topic, Message msg) {
+		callback(context.getTopic(topic), msg);
+	}
+
+	/**
+	 * Stores the new input value and publishes the outputs for the current input values.
+	 *
+	 * @param topic the topic on which the message was received
+	 * @param msg the message received
+	 */
+	@Override
+	public void callback(Topic topic, Message msg) {
+		if (store(topic, msg)) {
+			evaluate();
+		} else {
+			agent.callback(topic, msg);
+		}
+	}
+
+	/**
+	 * Stores a burst of input values and publishes the outputs for the final input values once.
+	 *
+	 * @param topics the topics on which the messages were received
+	 * @param msgs the messages received
+	 * @param count the number of messages in the burst
+	 */
+	@Override
+	public void callbackBatch(Topic[] topics, Message[] msgs, int count) {
+		boolean changed = false;
+		for (int i = 0; i < count; i++) {
+			if (store(topics[i], msgs[i])) {
+				changed = true;
+			} else {
+				agent.callback(topics[i], msgs[i]);
+			}
+		}
+		if (changed) {
+			evaluate();
+		}
+	}
+
+	/**
+	 * Remembers the latest message of an input topic.
+	 *
+	 * @param topic the topic of the message
+	 * @param msg the message
+	 * @return true if the topic is one of the inputs
+	 */
+	private boolean store(Topic topic, Message msg) {
+		for (int j = 0; j < inputs.length; j++) {
+			if (inputs[j] == topic) {
+				latest[j] = msg;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Publishes the cached outputs for the current input values, or computes and caches them.
+	 */
+	private void evaluate() {
+		Key key = key();
+		if (key == null) {
+			// Missing or non-numeric inputs cannot be cached
+			feed();
+			return;
+		}
+		Message[] cached = cache.get(key);
+		if (cached != null) {
+			hits.increment();
+			for (int j = 0; j < outputs.length; j++) {
+				if (cached[j] != null) {
+					outputs[j].publish(copy(cached[j]));
+				}
+			}
+			return;
+		}
+		misses.increment();
+		for (int j = 0; j < outputs.length; j++) {
+			before[j] = outputs[j].getMsg();
+		}
+		feed();
+		Message[] result = new Message[outputs.length];
+		for (int j = 0; j < outputs.length; j++) {
+			Message now = outputs[j].getMsg();
+			if (now != before[j]) {
+				result[j] = now;
+			}
+			before[j] = null;
+		}
+		cache.put(key, result);
+	}
+
+	/**
+	 * Hands every known input value to the wrapped agent in one batch callback.
+	 * Cache hits skip the agent, so it has to be brought up to date on all inputs, not just the changed one.
+	 */
+	private void feed() {
+		int count = 0;
+		for (int j = 0; j < inputs.length; j++) {
+			if (latest[j] != null) {
+				feedTopics[count] = inputs[j];
+				feedMsgs[count] = latest[j];
+				count++;
+			}
+		}
+		if (count > 0) {
+			try {
+				agent.callbackBatch(feedTopics, feedMsgs, count);
+			} finally {
+				Arrays.fill(feedMsgs, 0, count, null);
+			}
+		}
+	}
+
+	/**
+	 * Builds the cache key from the latest input values.
+	 *
+	 * @return the key, or null if an input is missing or not a number
+	 */
+	private Key key() {
+		double[] values = new double[latest.length];
+		for (int j = 0; j < latest.length; j++) {
+			if (latest[j] == null || Double.isNaN(latest[j].asDouble)) {
+				return null;
+			}
+			values[j] = latest[j].asDouble;
+		}
+		return new Key(values);
+	}
+
+	/**
+	 * Creates a fresh message with the value of a cached one, so the published message carries a current timestamp.
+	 *
+	 * @param cached the cached message
+	 * @return the new message
+	 */
+	private static Message copy(Message cached) {
+		return Double.isNaN(cached.asDouble) ? new Message(cached.getText()) : new Message(cached.asDouble);
+	}
+
+	/**
+	 * Closes the wrapped agent and drops the cached results.
+	 */
+	@Override
+	public void close() {
+		agent.close();
+		cache.clear();
+	}
+
+	/**
+	 * The input values of one cache entry.
+	 */
+	private static final class Key {
+		private final double[] values;
+		private final int hash;
+
+		Key(double[] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && Arrays.equals(values, ((Key) o).values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
@@ -3,12 +3,13 @@ import java.util.Date;
 
 /**
  * The Message class represents a message with data in various formats (byte array, text, double) and a timestamp.
+ * Numeric messages store the double directly; their text and byte forms are only built when someone reads them.
  */
 public class Message {
-    public final byte[] data;
-    public final String asText;
     public final double asDouble;
-    public final Date date;
+    public final long timestamp;
+    private volatile byte[] data;
+    private volatile String asText;
 
     /**
      * Constructs a Message with the specified byte array data.
@@ -19,34 +20,67 @@ public class Message {
         this.data = data;
         this.asText = new String(data);
         this.asDouble = convertToDouble(this.asText);
-        this.date = new Date();
+        this.timestamp = System.nanoTime();
     }
 
     /**
-     * Returns the byte array data of the message.
+     * Constructs a Message with the specified text.
+     *
+     * @param text the text data
+     */
+    public Message(String text) {
+        this.asText = text;
+        this.asDouble = convertToDouble(text);
+        this.timestamp = System.nanoTime();
+    }
+
+    /**
+     * Constructs a Message with the specified double value.
+     *
+     * @param value the double value
+     */
+    public Message(double value) {
+        this.asDouble = value;
+        this.timestamp = System.nanoTime();
+    }
+
+    /**
+     * Returns the byte array data of the message, encoding the text on first use.
      *
      * @return the byte array data
      */
     public byte[] getData() {
-        return data;
+        byte[] d = this.data;
+        if (d == null) {
+            d = getText().getBytes();
+            this.data = d;
+        }
+        return d;
     }
 
     /**
-     * Constructs a Message with the specified text.
+     * Returns the text of the message, formatting the double value on first use.
      *
-     * @param text the text data
+     * @return the text data
      */
-    public Message(String text) {
-        this(text.getBytes());
+    public String getText() {
+        String t = this.asText;
+        if (t == null) {
+            t = Double.toString(this.asDouble);
+            this.asText = t;
+        }
+        return t;
     }
 
     /**
-     * Constructs a Message with the specified double value.
+     * Returns the wall-clock time at which the message was created.
+     * The message itself only stores a monotonic timestamp, so the date is derived on demand.
      *
-     * @param value the double value
+     * @return the creation date of the message
      */
-    public Message(double value) {
-        this(Double.toString(value).getBytes());
+    public Date getDate() {
+        long ageMillis = (System.nanoTime() - this.timestamp) / 1_000_000L;
+        return new Date(System.currentTimeMillis() - ageMillis);
     }
 
     /**
@@ -0,0 +1,49 @@
+package graph;
+
+/**
+ * The OverflowPolicy enum decides what a ParallelAgent does with a message when its inbox is full.
+ */
+public enum OverflowPolicy {
+    /** Wait until the inbox has room (the original behavior). */
+    BLOCK("block"),
+    /** Wait up to the configured timeout, then drop the message. */
+    BLOCK_TIMEOUT("timeout"),
+    /** Drop the oldest queued message to make room for the new one. */
+    DROP_OLDEST("drop_oldest"),
+    /** Drop the new message and keep the queued ones. */
+    DROP_NEWEST("drop_newest"),
+    /** Keep only the latest message per topic; a newer message replaces a queued one. */
+    CONFLATE("conflate");
+
+    private final String key;
+
+    OverflowPolicy(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Returns the short name used for this policy in configuration files.
+     *
+     * @return the configuration key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Parses an overflow policy from its configuration key or enum name, ignoring case.
+     *
+     * @param value the text to parse
+     * @return the matching policy
+     * @throws IllegalArgumentException if no policy matches
+     */
+    public static OverflowPolicy fromKey(String value) {
+        String trimmed = value.trim();
+        for (OverflowPolicy policy : values()) {
+            if (policy.key.equalsIgnoreCase(trimmed) || policy.name().equalsIgnoreCase(trimmed)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported overflow policy: " + value);
+    }
+}
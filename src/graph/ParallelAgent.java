@@ -1,27 +1,55 @@
 package graph;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * The ParallelAgent class implements the Agent interface and processes messages in parallel using a blocking queue.
+ * The ParallelAgent class implements the Agent interface and processes messages in parallel using an inbox.
+ * Depending on the execution mode, the inbox is drained by a dedicated thread or by tasks on a shared pool;
+ * either way the wrapped agent never receives two callbacks at the same time.
+ * Queued messages are drained in batches of up to {@code maxBatch} and handed to
+ * {@link Agent#callbackBatch(Topic[], Message[], int)} in a single inbox operation.
+ * When the inbox is full, the configured {@link OverflowPolicy} decides whether the publisher waits,
+ * a message is dropped, or queued messages are conflated to the latest value per topic.
+ * The inbox is either a blocking queue or a lock-free ring buffer, see {@link InboxType}.
+ * <p>
+ * Messages are handled asynchronously in every mode, so a caller that reads downstream topics after a publish
+ * should first wait for {@link GraphContext#awaitSettled(long)}; the agent counts the messages it queues and
+ * handles for that purpose.
  */
 public class ParallelAgent implements Agent {
 	private final Agent agent;
-	private final BlockingQueue<MessageWithTopic> messageQueue;
+	private final GraphContext context;
+	private final Inbox inbox;
+	private final Executor executor;
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final int maxBatch;
+	private final Topic[] batchTopics;
+	private final Message[] batchMsgs;
+	private final OverflowPolicy policy;
+	private final long timeoutMillis;
+	private final ConcurrentHashMap<Topic, Message> pending;
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder conflated = new LongAdder();
+	// Messages queued and messages handled or dropped from the queue; equal when the agent is idle
+	private final LongAdder queued = new LongAdder();
+	private final LongAdder handled = new LongAdder();
 	private volatile boolean stop = false;
 	private Thread t;
 
 	/**
-	 * Constructs a ParallelAgent with the specified agent and queue capacity.
+	 * Constructs a ParallelAgent with the specified agent and queue capacity, running on its own thread.
 	 *
 	 * @param agent the agent to be wrapped
 	 * @param capacity the capacity of the blocking queue
 	 */
 	public ParallelAgent(Agent agent, int capacity) {
-		this.agent = agent;
-		this.messageQueue = new ArrayBlockingQueue<>(capacity);
-		startMessageProcessing();
+		this(agent, capacity, ExecutionMode.THREAD_PER_AGENT);
 	}
 
 	/**
@@ -32,45 +60,279 @@ public class ParallelAgent implements Agent {
 	 * @param name the name of the agent (not used in this implementation)
 	 */
 	public ParallelAgent(Agent agent, int capacity, String name) {
+		this(agent, capacity);
+	}
+
+	/**
+	 * Constructs a ParallelAgent with the specified agent, queue capacity, and execution mode.
+	 * The wrapper takes over every subscription of the wrapped agent, so messages go through the queue.
+	 *
+	 * @param agent the agent to be wrapped
+	 * @param capacity the capacity of the blocking queue
+	 * @param mode how the queue is drained
+	 */
+	public ParallelAgent(Agent agent, int capacity, ExecutionMode mode) {
+		this(agent, capacity, mode, 1);
+	}
+
+	/**
+	 * Constructs a ParallelAgent with the specified agent, queue capacity, execution mode, and batch size.
+	 *
+	 * @param agent the agent to be wrapped
+	 * @param capacity the capacity of the blocking queue
+	 * @param mode how the queue is drained
+	 * @param maxBatch the maximum number of messages handed to the agent in one batch callback
+	 */
+	public ParallelAgent(Agent agent, int capacity, ExecutionMode mode, int maxBatch) {
+		this(agent, settings(capacity, mode, maxBatch));
+	}
+
+	/**
+	 * Constructs a ParallelAgent with the specified agent and settings.
+	 *
+	 * @param agent the agent to be wrapped
+	 * @param settings the inbox, execution mode, batch size and overflow policy
+	 * @throws IllegalArgumentException if the settings combine options the inbox does not support
+	 */
+	public ParallelAgent(Agent agent, AgentSettings settings) {
+		this(GraphContext.getDefault(), agent, settings);
+	}
+
+	/**
+	 * Constructs a ParallelAgent for an agent of the given graph context, scheduled on the context's pool.
+	 *
+	 * @param context the graph the agent belongs to
+	 * @param agent the agent to be wrapped
+	 * @param settings the inbox, execution mode, batch size and overflow policy
+	 * @throws IllegalArgumentException if the settings combine options the inbox does not support
+	 */
+	public ParallelAgent(GraphContext context, Agent agent, AgentSettings settings) {
+		settings.validate();
 		this.agent = agent;
-		this.messageQueue = new ArrayBlockingQueue<>(capacity);
-		startMessageProcessing();
+		this.context = context;
+		this.inbox = settings.getInbox().create(settings.getCapacity(), settings.getWaitStrategy());
+		this.executor = context.executor(settings.getMode());
+		this.maxBatch = settings.getMaxBatch();
+		this.batchTopics = new Topic[maxBatch];
+		this.batchMsgs = new Message[maxBatch];
+		this.policy = settings.getPolicy();
+		this.timeoutMillis = settings.getTimeoutMillis();
+		this.pending = policy == OverflowPolicy.CONFLATE ? new ConcurrentHashMap<>() : null;
+		for (Topic topic : context.getTopicManager().getTopics()) {
+			if (topic.getSubs().contains(agent)) {
+				topic.unsubscribe(agent);
+				topic.subscribe(this);
+			}
+		}
+		context.register(this);
+		if (this.executor == null) {
+			startMessageProcessing();
+		}
+	}
+
+	/**
+	 * Builds the settings for the positional constructors.
+	 *
+	 * @param capacity the capacity of the blocking queue
+	 * @param mode how the queue is drained
+	 * @param maxBatch the maximum batch size
+	 * @return the settings
+	 */
+	private static AgentSettings settings(int capacity, ExecutionMode mode, int maxBatch) {
+		AgentSettings settings = new AgentSettings();
+		settings.setCapacity(capacity);
+		settings.setMode(mode);
+		settings.setMaxBatch(maxBatch);
+		return settings;
 	}
 
 	/**
-	 * Returns the name of the agent.
+	 * Returns the name of the wrapped agent.
 	 *
 	 * @return the name of the agent
 	 */
 	@Override
 	public String getName() {
-		return "";
+		return agent.getName();
 	}
 
 	/**
-	 * Resets the agent's state.
+	 * Resets the wrapped agent's state.
 	 */
 	@Override
 	public void reset() {
-		// TODO Auto-generated method stub
+		agent.reset();
+	}
+
+	/**
+	 * Returns the state of the wrapped agent.
+	 *
+	 * @return the state of the agent, or null
+	 */
+	@Override
+	public double[] getState() {
+		return agent.getState();
+	}
+
+	/**
+	 * Restores the state of the wrapped agent.
+	 *
+	 * @param state the saved state
+	 */
+	@Override
+	public void setState(double[] state) {
+		agent.setState(state);
+	}
+
+	/**
+	 * Returns the number of messages dropped because the queue was full.
+	 *
+	 * @return the dropped message count
+	 */
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Returns the number of messages replaced by a newer message on the same topic before being delivered.
+	 *
+	 * @return the conflated message count
+	 */
+	public long getConflatedCount() {
+		return conflated.sum();
+	}
+
+	/**
+	 * Returns the number of messages queued so far, conflation tokens included.
+	 *
+	 * @return the queued message count
+	 */
+	long getQueuedCount() {
+		return queued.sum();
+	}
+
+	/**
+	 * Checks whether every queued message has been handled.
+	 *
+	 * @return true if the inbox is empty and the wrapped agent is not running a callback
+	 */
+	boolean isIdle() {
+		// Handled first: it never passes queued, so equal sums mean both were equal when handled was read
+		long done = handled.sum();
+		return done == queued.sum();
+	}
+
+	/**
+	 * Callback method that is invoked with a topic name instead of a handle.
+	 * Resolves the name to its Topic and queues the message like {@link #callback(Topic, Message)}.
+	 *
+	 * @param topic the name of the topic on which the message was received
+	 * @param msg the message received
+	 */
+	@Override
+	public void callback(String topic, Message msg) {
+		callback(context.getTopic(topic), msg);
 	}
 
 	/**
 	 * Callback method that is invoked when a message is received on a subscribed topic.
-	 * Puts the message into the blocking queue for processing.
+	 * Puts the message into the inbox for processing, following the overflow policy.
 	 *
 	 * @param topic the topic on which the message was received
 	 * @param msg the message received
 	 */
 	@Override
-	public void callback(String topic, Message msg) {
+	public void callback(Topic topic, Message msg) {
 		try {
-			messageQueue.put(new MessageWithTopic(topic, msg));
+			if (enqueue(topic, msg) && executor != null) {
+				schedule();
+			}
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 		}
 	}
 
+	/**
+	 * Adds a message to the inbox according to the overflow policy, counting it as queued until it is handled.
+	 *
+	 * @param topic the topic of the message
+	 * @param msg the message
+	 * @return true if something new was queued, false if the message was dropped or conflated
+	 * @throws InterruptedException if interrupted while waiting for room
+	 */
+	private boolean enqueue(Topic topic, Message msg) throws InterruptedException {
+		queued.increment();
+		boolean added = false;
+		try {
+			added = offer(topic, msg);
+			return added;
+		} finally {
+			if (!added) {
+				handled.increment();
+			}
+		}
+	}
+
+	/**
+	 * Adds a message to the inbox according to the overflow policy.
+	 *
+	 * @param topic the topic of the message
+	 * @param msg the message
+	 * @return true if something new was queued, false if the message was dropped or conflated
+	 * @throws InterruptedException if interrupted while waiting for room
+	 */
+	private boolean offer(Topic topic, Message msg) throws InterruptedException {
+		switch (policy) {
+			case CONFLATE:
+				if (pending.put(topic, msg) != null) {
+					conflated.increment();
+					return false;
+				}
+				// Queue a token for the topic; the latest pending message is looked up when it is taken
+				put(topic, null);
+				return true;
+			case DROP_NEWEST:
+				if (!inbox.offer(topic, msg)) {
+					dropped.increment();
+					return false;
+				}
+				return true;
+			case DROP_OLDEST:
+				while (!inbox.offer(topic, msg)) {
+					if (inbox.dropOldest()) {
+						handled.increment();
+						dropped.increment();
+					}
+				}
+				return true;
+			case BLOCK_TIMEOUT:
+				if (!inbox.offer(topic, msg, timeoutMillis, TimeUnit.MILLISECONDS)) {
+					dropped.increment();
+					return false;
+				}
+				return true;
+			default:
+				put(topic, msg);
+				return true;
+		}
+	}
+
+	/**
+	 * Puts a message into the inbox, waiting for room if necessary.
+	 *
+	 * @param topic the topic of the message
+	 * @param msg the message, or null for a conflation token
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private void put(Topic topic, Message msg) throws InterruptedException {
+		if (executor == null) {
+			inbox.put(topic, msg);
+		} else if (!inbox.offer(topic, msg)) {
+			// Let a fork/join pool add a spare worker while this one waits, so the consumer can still run
+			ForkJoinPool.managedBlock(new InboxPut(topic, msg));
+		}
+	}
+
 	/**
 	 * Starts the message processing thread.
 	 */
@@ -78,10 +340,8 @@ public class ParallelAgent implements Agent {
 		Thread t = new Thread(() -> {
 			while (!stop) {
 				try {
-					MessageWithTopic msgt = messageQueue.take();
-					String topic = msgt.getTopicName();
-					Message originalMessage = msgt.getMessage();
-					agent.callback(topic, originalMessage);
+					int count = inbox.take(batchTopics, batchMsgs, maxBatch);
+					deliver(count);
 				} catch (InterruptedException e) {
 					Thread.currentThread().interrupt();
 				}
@@ -91,49 +351,101 @@ public class ParallelAgent implements Agent {
 		this.t = t;
 	}
 
+	/**
+	 * Submits a drain task to the shared executor unless one is already pending or running.
+	 */
+	private void schedule() {
+		if (!stop && scheduled.compareAndSet(false, true)) {
+			executor.execute(this::drain);
+		}
+	}
+
+	/**
+	 * Delivers queued messages to the wrapped agent on a pool thread.
+	 * At most one inbox's worth of messages is handled per run, so one busy agent cannot hold a worker forever.
+	 */
+	private void drain() {
+		try {
+			int budget = inbox.capacity();
+			int count;
+			while (!stop && budget > 0 && (count = inbox.drain(batchTopics, batchMsgs, maxBatch)) > 0) {
+				deliver(count);
+				budget -= count;
+			}
+		} finally {
+			scheduled.set(false);
+		}
+		if (!inbox.isEmpty()) {
+			schedule();
+		}
+	}
+
+	/**
+	 * Delivers the messages taken from the inbox, resolving conflation tokens to the latest pending message.
+	 *
+	 * @param taken the number of entries in the batch arrays
+	 */
+	private void deliver(int taken) {
+		int count = 0;
+		for (int i = 0; i < taken; i++) {
+			Message msg = batchMsgs[i] != null ? batchMsgs[i] : pending.remove(batchTopics[i]);
+			if (msg != null) {
+				batchTopics[count] = batchTopics[i];
+				batchMsgs[count] = msg;
+				count++;
+			}
+		}
+		try {
+			if (maxBatch == 1 && count == 1) {
+				agent.callback(batchTopics[0], batchMsgs[0]);
+			} else if (count > 0) {
+				agent.callbackBatch(batchTopics, batchMsgs, count);
+			}
+		} finally {
+			Arrays.fill(batchMsgs, 0, taken, null);
+			// Counted after the callback, so messages it published are already queued downstream
+			handled.add(taken);
+		}
+	}
+
 	/**
 	 * Closes the agent and stops the message processing thread.
 	 */
 	@Override
 	public void close() {
 		stop = true;
-		t.interrupt();
+		context.unregister(this);
+		if (t != null) {
+			t.interrupt();
+		}
+		if (pending != null) {
+			pending.clear();
+		}
 	}
 
 	/**
-	 * The MessageWithTopic class represents a message with its associated topic.
+	 * Blocks on a full inbox in a way that a fork/join pool can compensate for.
 	 */
-	private static class MessageWithTopic {
-		private final String topic;
-		private final Message message;
+	private class InboxPut implements ForkJoinPool.ManagedBlocker {
+		private final Topic topic;
+		private final Message msg;
+		private boolean done = false;
 
-		/**
-		 * Constructs a MessageWithTopic with the specified topic and message.
-		 *
-		 * @param topic the topic of the message
-		 * @param message the message
-		 */
-		public MessageWithTopic(String topic, Message message) {
+		InboxPut(Topic topic, Message msg) {
 			this.topic = topic;
-			this.message = message;
+			this.msg = msg;
 		}
 
-		/**
-		 * Returns the topic of the message.
-		 *
-		 * @return the topic of the message
-		 */
-		public String getTopicName() {
-			return this.topic;
+		@Override
+		public boolean block() throws InterruptedException {
+			inbox.put(topic, msg);
+			done = true;
+			return true;
 		}
 
-		/**
-		 * Returns the message.
-		 *
-		 * @return the message
-		 */
-		public Message getMessage() {
-			return message;
+		@Override
+		public boolean isReleasable() {
+			return done || (done = inbox.offer(topic, msg));
 		}
 	}
 }
@@ -0,0 +1,125 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The QueueInbox class is an Inbox backed by a lock-based ArrayBlockingQueue.
+ */
+class QueueInbox implements Inbox {
+    private final BlockingQueue<MessageWithTopic> messageQueue;
+    private final ArrayList<MessageWithTopic> batch = new ArrayList<>();
+    private final int capacity;
+
+    /**
+     * Constructs a QueueInbox with the specified capacity.
+     *
+     * @param capacity the capacity of the blocking queue
+     */
+    QueueInbox(int capacity) {
+        this.messageQueue = new ArrayBlockingQueue<>(capacity);
+        this.capacity = capacity;
+    }
+
+    @Override
+    public boolean offer(Topic topic, Message msg) {
+        return messageQueue.offer(new MessageWithTopic(topic, msg));
+    }
+
+    @Override
+    public boolean offer(Topic topic, Message msg, long timeout, TimeUnit unit) throws InterruptedException {
+        return messageQueue.offer(new MessageWithTopic(topic, msg), timeout, unit);
+    }
+
+    @Override
+    public void put(Topic topic, Message msg) throws InterruptedException {
+        messageQueue.put(new MessageWithTopic(topic, msg));
+    }
+
+    @Override
+    public boolean dropOldest() {
+        return messageQueue.poll() != null;
+    }
+
+    @Override
+    public int drain(Topic[] topics, Message[] msgs, int max) {
+        messageQueue.drainTo(batch, max);
+        return copyBatch(topics, msgs);
+    }
+
+    @Override
+    public int take(Topic[] topics, Message[] msgs, int max) throws InterruptedException {
+        batch.add(messageQueue.take());
+        if (max > 1) {
+            messageQueue.drainTo(batch, max - 1);
+        }
+        return copyBatch(topics, msgs);
+    }
+
+    /**
+     * Copies the drained entries into the consumer's arrays and empties the batch list.
+     *
+     * @param topics receives the topics
+     * @param msgs receives the messages
+     * @return the number of entries copied
+     */
+    private int copyBatch(Topic[] topics, Message[] msgs) {
+        int count = batch.size();
+        for (int i = 0; i < count; i++) {
+            MessageWithTopic msgt = batch.get(i);
+            topics[i] = msgt.getTopic();
+            msgs[i] = msgt.getMessage();
+        }
+        batch.clear();
+        return count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return messageQueue.isEmpty();
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * The MessageWithTopic class represents a message with its associated topic.
+     */
+    private static class MessageWithTopic {
+        private final Topic topic;
+        private final Message message;
+
+        /**
+         * Constructs a MessageWithTopic with the specified topic and message.
+         *
+         * @param topic the topic of the message
+         * @param message the message
+         */
+        public MessageWithTopic(Topic topic, Message message) {
+            this.topic = topic;
+            this.message = message;
+        }
+
+        /**
+         * Returns the topic of the message.
+         *
+         * @return the topic of the message
+         */
+        public Topic getTopic() {
+            return this.topic;
+        }
+
+        /**
+         * Returns the message.
+         *
+         * @return the message
+         */
+        public Message getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package graph;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The RingBufferInbox class is a lock-free multi-producer/single-consumer Inbox.
+ * Slots are preallocated and reused: producers claim a sequence number with a CAS, write the topic
+ * and message into the slot, and then publish the sequence; the consumer reads published slots in order.
+ * Only the consumer may remove messages, so dropping the oldest message is not supported.
+ */
+class RingBufferInbox implements Inbox {
+    private final int size;
+    private final int mask;
+    private final Topic[] topics;
+    private final Message[] msgs;
+    // Sequence number currently stored in each slot; a slot is readable once it holds the expected sequence
+    private final AtomicLongArray published;
+    // Highest sequence claimed by a producer
+    private final AtomicLong claimed = new AtomicLong(-1);
+    // Highest sequence taken by the consumer
+    private volatile long consumed = -1;
+    private final WaitStrategy wait;
+    // The consumer thread parked in take(), if any
+    private volatile Thread sleeper;
+
+    /**
+     * Constructs a RingBufferInbox holding at least the specified number of messages.
+     *
+     * @param capacity the minimum capacity; rounded up to a power of two
+     * @param wait how producers and the consumer wait
+     */
+    RingBufferInbox(int capacity, WaitStrategy wait) {
+        int n = Integer.highestOneBit(Math.max(1, capacity));
+        this.size = n < capacity ? n << 1 : n;
+        this.mask = size - 1;
+        this.topics = new Topic[size];
+        this.msgs = new Message[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        this.wait = wait;
+    }
+
+    /**
+     * Claims the next free sequence number.
+     *
+     * @return the claimed sequence, or -1 if the ring is full
+     */
+    private long tryClaim() {
+        long current;
+        do {
+            current = claimed.get();
+            if (current + 1 - size > consumed) {
+                return -1;
+            }
+        } while (!claimed.compareAndSet(current, current + 1));
+        return current + 1;
+    }
+
+    /**
+     * Writes a message into its claimed slot and makes it visible to the consumer.
+     *
+     * @param seq the claimed sequence
+     * @param topic the topic of the message
+     * @param msg the message
+     */
+    private void publish(long seq, Topic topic, Message msg) {
+        int index = (int) seq & mask;
+        topics[index] = topic;
+        msgs[index] = msg;
+        published.set(index, seq);
+        Thread s = sleeper;
+        if (s != null) {
+            LockSupport.unpark(s);
+        }
+    }
+
+    @Override
+    public boolean offer(Topic topic, Message msg) {
+        long seq = tryClaim();
+        if (seq < 0) {
+            return false;
+        }
+        publish(seq, topic, msg);
+        return true;
+    }
+
+    @Override
+    public boolean offer(Topic topic, Message msg, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long seq;
+        while ((seq = tryClaim()) < 0) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            wait.idle();
+        }
+        publish(seq, topic, msg);
+        return true;
+    }
+
+    @Override
+    public void put(Topic topic, Message msg) throws InterruptedException {
+        long seq;
+        while ((seq = tryClaim()) < 0) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            wait.idle();
+        }
+        publish(seq, topic, msg);
+    }
+
+    @Override
+    public boolean dropOldest() {
+        throw new UnsupportedOperationException("A ring buffer inbox cannot drop messages on behalf of its consumer");
+    }
+
+    @Override
+    public int drain(Topic[] topics, Message[] msgs, int max) {
+        long next = consumed + 1;
+        int count = 0;
+        while (count < max) {
+            int index = (int) next & mask;
+            if (published.get(index) != next) {
+                break;
+            }
+            topics[count] = this.topics[index];
+            msgs[count] = this.msgs[index];
+            this.topics[index] = null;
+            this.msgs[index] = null;
+            count++;
+            next++;
+        }
+        if (count > 0) {
+            consumed = next - 1;
+        }
+        return count;
+    }
+
+    @Override
+    public int take(Topic[] topics, Message[] msgs, int max) throws InterruptedException {
+        while (true) {
+            int count = drain(topics, msgs, max);
+            if (count > 0) {
+                return count;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (wait == WaitStrategy.PARK) {
+                sleeper = Thread.currentThread();
+                // Check again after announcing ourselves, so a publish in between is not missed
+                if (isEmpty()) {
+                    LockSupport.park(this);
+                }
+                sleeper = null;
+            } else {
+                wait.idle();
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        long next = consumed + 1;
+        return published.get((int) next & mask) != next;
+    }
+
+    @Override
+    public int capacity() {
+        return size;
+    }
+}
@@ -0,0 +1,45 @@
+package graph;
+
+/**
+ * The SyncPolicy enum decides when a {@link Journal} forces its group commits to disk.
+ */
+public enum SyncPolicy {
+    /** Never force; the operating system writes the journal back on its own. Fastest, but a power loss can lose recent publishes. */
+    NONE("none"),
+    /** Force after every group commit, without making publishers wait for it. */
+    GROUP("group"),
+    /** Force after every group commit, and make each publish wait until the commit holding it is on disk. */
+    ALWAYS("always");
+
+    private final String key;
+
+    SyncPolicy(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Returns the short name used for this policy in configuration.
+     *
+     * @return the configuration key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Parses a sync policy from its configuration key or enum name, ignoring case.
+     *
+     * @param value the text to parse
+     * @return the matching sync policy
+     * @throws IllegalArgumentException if no policy matches
+     */
+    public static SyncPolicy fromKey(String value) {
+        String trimmed = value.trim();
+        for (SyncPolicy policy : values()) {
+            if (policy.key.equalsIgnoreCase(trimmed) || policy.name().equalsIgnoreCase(trimmed)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported sync policy: " + value);
+    }
+}
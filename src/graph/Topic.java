@@ -1,24 +1,44 @@
 package graph;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import graph.TopicManagerSingleton.TopicManager;
 
 /**
  * The Topic class represents a topic in a publish-subscribe system, managing subscribers and publishers.
+ * Subscriber and publisher lists are copy-on-write arrays, so publishing never locks and never
+ * observes a list that is being modified.
  */
 public class Topic {
+    private static final Agent[] NO_AGENTS = new Agent[0];
+    private static final AtomicReferenceFieldUpdater<Topic, Agent[]> SUBS =
+            AtomicReferenceFieldUpdater.newUpdater(Topic.class, Agent[].class, "subs");
+    private static final AtomicReferenceFieldUpdater<Topic, Agent[]> PUBS =
+            AtomicReferenceFieldUpdater.newUpdater(Topic.class, Agent[].class, "pubs");
+
     public final String name;
-    private final List<Agent> subs = new ArrayList<>();
-    private final List<Agent> pubs = new ArrayList<>();
-    private Message msg = new Message("0");
+    public final int id;
+    private final TopicManager manager;
+    private volatile Agent[] subs = NO_AGENTS;
+    private volatile Agent[] pubs = NO_AGENTS;
+    private volatile Message msg = new Message("0");
+    private volatile TopicDispatcher dispatcher;
+    private volatile TopicHistory history;
 
     /**
-     * Constructs a Topic with the specified name.
+     * Constructs a Topic with the specified name and id.
      *
      * @param name the name of the topic
+     * @param id the dense integer id assigned by the TopicManager
+     * @param manager the TopicManager creating the topic, whose listeners are told of every message
      */
-    Topic(String name) {
+    Topic(String name, int id, TopicManager manager) {
         this.name = name;
+        this.id = id;
+        this.manager = manager;
     }
 
     /**
@@ -27,9 +47,7 @@ public class Topic {
      * @param a the agent to subscribe
      */
     public void subscribe(Agent a) {
-        if (!subs.contains(a)) {
-            subs.add(a);
-        }
+        add(SUBS, a);
     }
 
     /**
@@ -38,37 +56,103 @@ public class Topic {
      * @param a the agent to unsubscribe
      */
     public void unsubscribe(Agent a) {
-        subs.remove(a);
+        remove(SUBS, a);
     }
 
     /**
      * Publishes a message to all subscribed agents.
+     * The subscribers are read from a single snapshot, so the fan-out takes no lock and allocates nothing.
+     * Subscribers receive this topic as a handle, so they can dispatch on identity instead of the name.
+     * The {@link TopicListener}s of the topic's manager are notified before the subscribers.
      *
      * @param m the message to publish
      */
     public void publish(Message m) {
         this.msg = m;
-        for (Agent a : subs) {
-            a.callback(this.name, m);
+        TopicHistory h = this.history;
+        if (h != null) {
+            h.record(m);
+        }
+        TopicListener[] listeners = manager.listeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].published(this, m);
         }
+        Agent[] snapshot = this.subs;
+        TopicDispatcher d = this.dispatcher;
+        if (d != null) {
+            d.dispatch(this, m, snapshot);
+            return;
+        }
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i].callback(this, m);
+        }
+    }
+
+    /**
+     * Starts keeping the most recent numeric values of the topic, replacing any history kept so far.
+     *
+     * @param capacity the maximum number of samples kept, or 0 to stop keeping a history
+     * @throws IllegalArgumentException if the capacity is negative
+     */
+    public void enableHistory(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("history must not be negative: " + capacity);
+        }
+        this.history = capacity == 0 ? null : new TopicHistory(capacity);
+    }
+
+    /**
+     * Returns the history of the topic.
+     *
+     * @return the history, or null if the topic keeps none
+     */
+    public TopicHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Sets the last message of the topic without delivering it to the subscribers, when restoring a checkpoint.
+     *
+     * @param m the restored message
+     */
+    void restore(Message m) {
+        this.msg = m;
+    }
+
+    /**
+     * Lets an execution engine take over the fan-out of this topic, or restores the default fan-out.
+     *
+     * @param dispatcher the dispatcher, or null for the default fan-out
+     */
+    void setDispatcher(TopicDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
     }
 
     /**
      * Returns the list of agents that publish to this topic.
      *
-     * @return the list of publishing agents
+     * @return an unmodifiable snapshot of the publishing agents
      */
     public List<Agent> getPubs() {
-        return pubs;
+        return Collections.unmodifiableList(Arrays.asList(pubs));
     }
 
     /**
      * Returns the list of agents that subscribe to this topic.
      *
-     * @return the list of subscribing agents
+     * @return an unmodifiable snapshot of the subscribing agents
      */
     public List<Agent> getSubs() {
-        return subs;
+        return Collections.unmodifiableList(Arrays.asList(subs));
+    }
+
+    /**
+     * Returns the dense integer id of the topic, unique within its TopicManager.
+     *
+     * @return the id of the topic
+     */
+    public int getId() {
+        return id;
     }
 
     /**
@@ -86,9 +170,7 @@ public class Topic {
      * @param a the agent to add as a publisher
      */
     public void addPublisher(Agent a) {
-        if (!pubs.contains(a)) {
-            pubs.add(a);
-        }
+        add(PUBS, a);
     }
 
     /**
@@ -106,6 +188,67 @@ public class Topic {
      * @param a the agent to remove as a publisher
      */
     public void removePublisher(Agent a) {
-        pubs.remove(a);
+        remove(PUBS, a);
+    }
+
+    /**
+     * Atomically replaces the array held by the given field with a copy that also contains the agent.
+     *
+     * @param field the subscriber or publisher field
+     * @param a the agent to add
+     */
+    private void add(AtomicReferenceFieldUpdater<Topic, Agent[]> field, Agent a) {
+        while (true) {
+            Agent[] current = field.get(this);
+            if (indexOf(current, a) >= 0) {
+                return;
+            }
+            Agent[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = a;
+            if (field.compareAndSet(this, current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Atomically replaces the array held by the given field with a copy that no longer contains the agent.
+     *
+     * @param field the subscriber or publisher field
+     * @param a the agent to remove
+     */
+    private void remove(AtomicReferenceFieldUpdater<Topic, Agent[]> field, Agent a) {
+        while (true) {
+            Agent[] current = field.get(this);
+            int index = indexOf(current, a);
+            if (index < 0) {
+                return;
+            }
+            Agent[] next = NO_AGENTS;
+            if (current.length > 1) {
+                next = new Agent[current.length - 1];
+                System.arraycopy(current, 0, next, 0, index);
+                System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+            }
+            if (field.compareAndSet(this, current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the agent in the array, or -1 if it is not there.
+     *
+     * @param agents the array to search
+     * @param a the agent to find
+     * @return the index of the agent, or -1
+     */
+    private static int indexOf(Agent[] agents, Agent a) {
+        for (int i = 0; i < agents.length; i++) {
+            if (agents[i].equals(a)) {
+                return i;
+            }
+        }
+        return -1;
     }
 }
@@ -0,0 +1,18 @@
+package graph;
+
+/**
+ * The TopicDispatcher interface lets an execution engine take over the fan-out of a topic.
+ * When a topic has a dispatcher, {@link Topic#publish(Message)} stores the message and hands the
+ * subscriber snapshot to the dispatcher instead of calling every subscriber itself.
+ */
+interface TopicDispatcher {
+
+    /**
+     * Delivers a published message.
+     *
+     * @param topic the topic the message was published on
+     * @param msg the published message
+     * @param subs the subscribers of the topic at the time of publishing; must not be modified
+     */
+    void dispatch(Topic topic, Message msg, Agent[] subs);
+}
@@ -0,0 +1,213 @@
+package graph;
+
+import java.util.Arrays;
+
+/**
+ * The TopicHistory class keeps the most recent numeric values of a topic in a fixed-size ring buffer.
+ * Samples are stored in two primitive arrays of wall-clock times and values, so recording a sample allocates
+ * nothing; once the buffer is full, each new sample overwrites the oldest one. Text messages are not recorded.
+ * Queries copy out a time range, either as raw samples or downsampled into buckets of min, max and average.
+ */
+public class TopicHistory {
+    private final long[] times;
+    private final double[] values;
+    // The total number of samples recorded; the next sample goes to slot written % capacity
+    private long written = 0;
+
+    /**
+     * Creates an empty history.
+     *
+     * @param capacity the maximum number of samples kept
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public TopicHistory(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("history must be at least 1: " + capacity);
+        }
+        this.times = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    /**
+     * Returns the maximum number of samples kept.
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return times.length;
+    }
+
+    /**
+     * Returns the number of samples currently kept.
+     *
+     * @return the sample count
+     */
+    public synchronized int size() {
+        return (int) Math.min(written, times.length);
+    }
+
+    /**
+     * Records the value of a published message at the current time, unless it is not a number.
+     *
+     * @param msg the published message
+     */
+    public void record(Message msg) {
+        if (!Double.isNaN(msg.asDouble)) {
+            record(System.currentTimeMillis(), msg.asDouble);
+        }
+    }
+
+    /**
+     * Records a sample.
+     *
+     * @param time the wall-clock time of the sample, in milliseconds
+     * @param value the value
+     */
+    public synchronized void record(long time, double value) {
+        int slot = (int) (written % times.length);
+        times[slot] = time;
+        values[slot] = value;
+        written++;
+    }
+
+    /**
+     * Returns the samples taken in a time range, oldest first.
+     *
+     * @param from the start of the range in milliseconds, inclusive
+     * @param to the end of the range in milliseconds, inclusive
+     * @return the samples in the range
+     */
+    public synchronized Samples range(long from, long to) {
+        int size = size();
+        long[] t = new long[size];
+        double[] v = new double[size];
+        int count = 0;
+        for (int k = 0; k < size; k++) {
+            int slot = slot(k);
+            if (times[slot] >= from && times[slot] <= to) {
+                t[count] = times[slot];
+                v[count] = values[slot];
+                count++;
+            }
+        }
+        return new Samples(Arrays.copyOf(t, count), Arrays.copyOf(v, count));
+    }
+
+    /**
+     * Downsamples a time range into buckets of equal duration. The range is first narrowed to the times of the
+     * samples it holds, so the buckets cover real data even when an end is left open with
+     * {@link Long#MIN_VALUE} or {@link Long#MAX_VALUE}, and no samples are copied. The number of buckets is
+     * capped at the capacity, which the samples could not fill anyway, so the result stays as small as the history.
+     *
+     * @param from the start of the range in milliseconds, inclusive
+     * @param to the end of the range in milliseconds, inclusive
+     * @param buckets the number of buckets, at most the capacity
+     * @return the minimum, maximum and average of the samples in every bucket, or no buckets if the range holds
+     *         no samples
+     * @throws IllegalArgumentException if the number of buckets is not positive or the range is empty
+     */
+    public synchronized Buckets downsample(long from, long to, int buckets) {
+        if (buckets < 1 || to < from) {
+            throw new IllegalArgumentException("Expected a positive bucket count and from <= to");
+        }
+        buckets = Math.min(buckets, times.length);
+        int size = size();
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (int k = 0; k < size; k++) {
+            long time = times[slot(k)];
+            if (time >= from && time <= to) {
+                first = Math.min(first, time);
+                last = Math.max(last, time);
+            }
+        }
+        if (first > last) {
+            return new Buckets(new long[0], 0, new int[0], new double[0], new double[0], new double[0]);
+        }
+        from = first;
+        to = last;
+        // Unsigned, since the span of arbitrary recorded times may not fit a long; rounded up, so the last
+        // millisecond still falls in the last bucket
+        long width = Long.divideUnsigned(to - from, buckets) + 1;
+        if (width <= 0) {
+            width = Long.MAX_VALUE;
+        }
+        long[] start = new long[buckets];
+        int[] count = new int[buckets];
+        double[] min = new double[buckets];
+        double[] max = new double[buckets];
+        double[] sum = new double[buckets];
+        for (int b = 0; b < buckets; b++) {
+            start[b] = from + b * width;
+            min[b] = Double.NaN;
+            max[b] = Double.NaN;
+        }
+        for (int k = 0; k < size; k++) {
+            int slot = slot(k);
+            long time = times[slot];
+            if (time < from || time > to) {
+                continue;
+            }
+            int b = (int) Math.min(buckets - 1, Long.divideUnsigned(time - from, width));
+            double value = values[slot];
+            if (count[b] == 0 || value < min[b]) {
+                min[b] = value;
+            }
+            if (count[b] == 0 || value > max[b]) {
+                max[b] = value;
+            }
+            sum[b] += value;
+            count[b]++;
+        }
+        for (int b = 0; b < buckets; b++) {
+            sum[b] = count[b] == 0 ? Double.NaN : sum[b] / count[b];
+        }
+        return new Buckets(start, width, count, min, max, sum);
+    }
+
+    /**
+     * Maps the k-th oldest kept sample to its slot.
+     *
+     * @param k the age rank, 0 for the oldest
+     * @return the slot
+     */
+    private int slot(int k) {
+        long oldest = Math.max(0, written - times.length);
+        return (int) ((oldest + k) % times.length);
+    }
+
+    /**
+     * Samples copied out of a history, as parallel arrays of times and values.
+     */
+    public static final class Samples {
+        public final long[] times;
+        public final double[] values;
+
+        Samples(long[] times, double[] values) {
+            this.times = times;
+            this.values = values;
+        }
+    }
+
+    /**
+     * A downsampled time range: per bucket its start time, sample count, minimum, maximum and average.
+     * Empty buckets have a count of 0 and NaN statistics.
+     */
+    public static final class Buckets {
+        public final long[] start;
+        public final long width;
+        public final int[] count;
+        public final double[] min;
+        public final double[] max;
+        public final double[] avg;
+
+        Buckets(long[] start, long width, int[] count, double[] min, double[] max, double[] avg) {
+            this.start = start;
+            this.width = width;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.avg = avg;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package graph;
+
+/**
+ * The TopicListener interface is notified of every message published on any topic of a
+ * {@link TopicManagerSingleton.TopicManager}, including topics created after the listener was added.
+ * Unlike an {@link Agent}, a listener is not part of the graph: it only observes values, for example to stream
+ * them to clients.
+ */
+public interface TopicListener {
+
+    /**
+     * Called on the publishing thread after a message is stored as the topic's current value, before the
+     * subscribers are called. It must return quickly and must not publish.
+     *
+     * @param topic the topic the message was published on
+     * @param msg the published message
+     */
+    void published(Topic topic, Message msg);
+}
@@ -1,25 +1,36 @@
 package graph;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.Arrays;
 import java.util.Collection;
 
 /**
  * The TopicManagerSingleton class provides a singleton instance of TopicManager to manage topics in a thread-safe manner.
+ * Further, independent registries can be created for separate graphs, see {@link GraphContext}.
  */
 public class TopicManagerSingleton {
 
     /**
      * The TopicManager class manages topics using a ConcurrentHashMap.
+     * Every topic also gets a dense integer id, so hot paths can hold a Topic handle or an id instead of a name.
      */
     public static class TopicManager {
         // The single instance of TopicManager
         private static final TopicManager instance = new TopicManager();
 
-        // ConcurrentHashMap to hold topic name to Topic instance mapping
-        private final ConcurrentHashMap<String, Topic> topics = new ConcurrentHashMap<>();
+        // ConcurrentHashMap to hold topic name to Topic instance mapping; replaced as a whole by clear()
+        private volatile ConcurrentHashMap<String, Topic> topics = new ConcurrentHashMap<>();
 
-        // Private constructor to prevent instantiation
-        private TopicManager() {}
+        // Topics indexed by id; replaced (never modified after publication) under the manager's lock
+        private volatile Topic[] byId = new Topic[16];
+        private int nextId = 0;
+        // Read by every publish; replaced (never modified after publication) under the manager's lock
+        volatile TopicListener[] listeners = new TopicListener[0];
+
+        /**
+         * Creates an empty topic registry, independent of the shared instance.
+         */
+        public TopicManager() {}
 
         /**
          * Gets or creates a topic with the specified name.
@@ -28,8 +39,55 @@ public class TopicManagerSingleton {
          * @return the Topic instance
          */
         public Topic getTopic(String name) {
-            // computeIfAbsent ensures atomicity and thread safety
-            return topics.computeIfAbsent(name, k -> new Topic(k));
+            // A plain lookup is enough for existing topics and never locks a bin
+            Topic topic = topics.get(name);
+            if (topic != null) {
+                return topic;
+            }
+            // Created under the manager's lock, never inside a map operation, so no bin lock is held while waiting
+            // for the manager
+            return createTopic(name);
+        }
+
+        /**
+         * Gets the topic with the specified name without creating it.
+         *
+         * @param name the name of the topic
+         * @return the Topic instance, or null if there is no such topic
+         */
+        public Topic findTopic(String name) {
+            return topics.get(name);
+        }
+
+        /**
+         * Gets the topic with the specified id.
+         *
+         * @param id the id of the topic
+         * @return the Topic instance, or null if no topic has that id
+         */
+        public Topic getTopic(int id) {
+            Topic[] snapshot = byId;
+            return id >= 0 && id < snapshot.length ? snapshot[id] : null;
+        }
+
+        /**
+         * Creates a topic with the next free id and records it in the id index, unless another thread created it
+         * first.
+         *
+         * @param name the name of the topic
+         * @return the Topic instance
+         */
+        private synchronized Topic createTopic(String name) {
+            Topic topic = topics.get(name);
+            if (topic != null) {
+                return topic;
+            }
+            topic = new Topic(name, nextId++, this);
+            Topic[] next = Arrays.copyOf(byId, topic.id < byId.length ? byId.length : byId.length * 2);
+            next[topic.id] = topic;
+            byId = next;
+            topics.put(name, topic);
+            return topic;
         }
 
         /**
@@ -42,10 +100,41 @@ public class TopicManagerSingleton {
         }
 
         /**
-         * Clears all topics.
+         * Adds a listener notified of every message published on any topic of this manager.
+         *
+         * @param listener the listener
+         */
+        public synchronized void addListener(TopicListener listener) {
+            TopicListener[] next = Arrays.copyOf(listeners, listeners.length + 1);
+            next[listeners.length] = listener;
+            listeners = next;
+        }
+
+        /**
+         * Removes a listener.
+         *
+         * @param listener the listener to remove
+         */
+        public synchronized void removeListener(TopicListener listener) {
+            for (int i = 0; i < listeners.length; i++) {
+                if (listeners[i] == listener) {
+                    TopicListener[] next = new TopicListener[listeners.length - 1];
+                    System.arraycopy(listeners, 0, next, 0, i);
+                    System.arraycopy(listeners, i + 1, next, i, next.length - i);
+                    listeners = next;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Clears all topics and starts numbering new topics from 0 again. Listeners stay registered.
+         * The registry is replaced rather than emptied, so clearing never waits for a lookup in progress.
          */
-        public void clear() {
-            topics.clear();
+        public synchronized void clear() {
+            topics = new ConcurrentHashMap<>();
+            byId = new Topic[16];
+            nextId = 0;
         }
     }
 
@@ -0,0 +1,62 @@
+package graph;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The WaitStrategy enum decides how a thread waits on a ring buffer inbox: a producer waiting for room,
+ * or a dedicated consumer thread waiting for messages.
+ */
+public enum WaitStrategy {
+    /** Spin on the CPU; lowest latency, but an idle consumer keeps a core busy. */
+    BUSY_SPIN("spin"),
+    /** Yield the CPU between checks. */
+    YIELD("yield"),
+    /** Park the thread; a waiting consumer is unparked by the next publish. */
+    PARK("park");
+
+    // How long a producer parks between checks for room
+    private static final long PARK_NANOS = 10_000L;
+
+    private final String key;
+
+    WaitStrategy(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Returns the short name used for this strategy in configuration files.
+     *
+     * @return the configuration key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Waits once before the caller checks its condition again.
+     */
+    void idle() {
+        switch (this) {
+            case BUSY_SPIN -> Thread.onSpinWait();
+            case YIELD -> Thread.yield();
+            case PARK -> LockSupport.parkNanos(this, PARK_NANOS);
+        }
+    }
+
+    /**
+     * Parses a wait strategy from its configuration key or enum name, ignoring case.
+     *
+     * @param value the text to parse
+     * @return the matching wait strategy
+     * @throws IllegalArgumentException if no strategy matches
+     */
+    public static WaitStrategy fromKey(String value) {
+        String trimmed = value.trim();
+        for (WaitStrategy strategy : values()) {
+            if (strategy.key.equalsIgnoreCase(trimmed) || strategy.name().equalsIgnoreCase(trimmed)) {
+                return strategy;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported wait strategy: " + value);
+    }
+}
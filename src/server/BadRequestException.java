@@ -0,0 +1,75 @@
+package server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The BadRequestException class reports a request the server refuses to handle, such as a malformed request line
+ * or a body over the size limit, together with the HTTP status to answer it with. The server sends
+ * {@link #toResponse()} and closes the connection, since it cannot tell where the next request would start.
+ */
+public class BadRequestException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /** The request is malformed. */
+    public static final int BAD_REQUEST = 400;
+    /** The body is larger than the server accepts. */
+    public static final int CONTENT_TOO_LARGE = 413;
+    /** The request line or headers are larger than the server accepts. */
+    public static final int HEADERS_TOO_LARGE = 431;
+
+    private final int status;
+
+    /**
+     * Creates the exception.
+     *
+     * @param status the HTTP status code to answer with
+     * @param message the description of the problem, also sent to the client
+     */
+    public BadRequestException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * Returns the HTTP status code to answer the request with.
+     *
+     * @return the status code
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Builds the complete error response, which asks the client to close the connection.
+     *
+     * @return the response bytes
+     */
+    public byte[] toResponse() {
+        byte[] body = getMessage().getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + " " + reason(status) + "\r\n" +
+                "Content-Type: text/plain; charset=utf-8\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "Connection: close\r\n" +
+                "\r\n";
+        byte[] headBytes = head.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] response = new byte[headBytes.length + body.length];
+        System.arraycopy(headBytes, 0, response, 0, headBytes.length);
+        System.arraycopy(body, 0, response, headBytes.length, body.length);
+        return response;
+    }
+
+    /**
+     * Returns the reason phrase of a status code.
+     *
+     * @param status the status code
+     * @return the reason phrase
+     */
+    private static String reason(int status) {
+        return switch (status) {
+            case CONTENT_TOO_LARGE -> "Content Too Large";
+            case HEADERS_TOO_LARGE -> "Request Header Fields Too Large";
+            default -> "Bad Request";
+        };
+    }
+}
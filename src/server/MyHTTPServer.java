@@ -1,39 +1,106 @@
 package server;
 
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import server.RequestParser.RequestInfo;
 import servlets.Servlet;
 
-import java.io.InputStreamReader;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.io.BufferedReader;
+import java.net.SocketTimeoutException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * The MyHTTPServer class implements a simple HTTP server that handles GET, POST, and DELETE requests using servlets.
+ * Connections can be persistent (HTTP/1.1 keep-alive): a connection serves requests one after the other, including
+ * pipelined ones, until the client closes it, stays idle for the keep-alive timeout or reaches the maximum number
+ * of requests. A kept connection holds its thread while it waits, so keep-alive is off for a fixed pool unless
+ * configured, and on by default when every connection has its own thread. Responses are framed by a {@link ResponseFramer}, so the client always knows where each one ends.
  */
 public class MyHTTPServer extends Thread implements HTTPServer {
+    /** The default time a kept connection may stay idle, in milliseconds. */
+    public static final int DEFAULT_KEEP_ALIVE_MILLIS = 5000;
+    /** The default number of requests served on one connection. */
+    public static final int DEFAULT_MAX_REQUESTS = 100;
 
     private final int port;
-    private final ConcurrentHashMap<String, Servlet> get = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Servlet> post = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Servlet> delete = new ConcurrentHashMap<>();
+    private final ServletRouter router = new ServletRouter();
     private final ExecutorService threadPool;
+    private final int keepAliveMillis;
+    private final int maxRequests;
     private volatile boolean close = false;
 
     /**
-     * Constructs a MyHTTPServer with the specified port and number of threads.
+     * Constructs a MyHTTPServer with the specified port and number of threads, closing every connection after one
+     * request, so idle clients never park on the pool's threads.
      *
      * @param port the port number on which the server will listen
      * @param nThreads the number of threads in the thread pool
      */
     public MyHTTPServer(int port, int nThreads) {
+        this(port, nThreads, DEFAULT_KEEP_ALIVE_MILLIS, 1);
+    }
+
+    /**
+     * Constructs a MyHTTPServer with the specified port, number of threads and keep-alive settings.
+     * A kept connection occupies a pool thread while it waits for its next request, so the timeout should stay
+     * short when there are few threads.
+     *
+     * @param port the port number on which the server will listen
+     * @param nThreads the number of threads in the thread pool
+     * @param keepAliveMillis how long a connection may stay idle between requests, in milliseconds
+     * @param maxRequests the number of requests served on one connection before it is closed; 1 disables keep-alive
+     */
+    public MyHTTPServer(int port, int nThreads, int keepAliveMillis, int maxRequests) {
+        this(port, Executors.newFixedThreadPool(nThreads), keepAliveMillis, maxRequests);
+    }
+
+    /**
+     * Constructs a MyHTTPServer that runs every accepted connection as a task of the given executor.
+     * The server owns the executor and shuts it down when it is closed.
+     *
+     * @param port the port number on which the server will listen
+     * @param executor the executor running the connections
+     * @param keepAliveMillis how long a connection may stay idle between requests, in milliseconds
+     * @param maxRequests the number of requests served on one connection before it is closed; 1 disables keep-alive
+     */
+    public MyHTTPServer(int port, ExecutorService executor, int keepAliveMillis, int maxRequests) {
         this.port = port;
-        this.threadPool = Executors.newFixedThreadPool(nThreads);
+        this.threadPool = executor;
+        this.keepAliveMillis = Math.max(1, keepAliveMillis);
+        this.maxRequests = Math.max(1, maxRequests);
+    }
+
+    /**
+     * Constructs a MyHTTPServer that runs every connection on its own virtual thread, with the default keep-alive
+     * settings. A connection blocked in a servlet or waiting for its next request only parks its virtual thread,
+     * so the number of concurrent connections is not limited by a pool size.
+     *
+     * @param port the port number on which the server will listen
+     * @return the server, not yet started
+     */
+    public static MyHTTPServer withVirtualThreads(int port) {
+        return new MyHTTPServer(port, newVirtualThreadExecutor(), DEFAULT_KEEP_ALIVE_MILLIS, DEFAULT_MAX_REQUESTS);
+    }
+
+    /**
+     * Creates a virtual-thread-per-task executor through reflection, so the code still runs on JDKs without Loom.
+     *
+     * @return the virtual thread executor, or an executor with one platform thread per task if virtual threads are
+     *         unavailable
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            System.err.println("Virtual threads are not available, using a platform thread per connection instead");
+            return Executors.newCachedThreadPool();
+        }
     }
 
     /**
@@ -44,8 +111,7 @@ public class MyHTTPServer extends Thread implements HTTPServer {
      * @param s the servlet to handle requests
      */
     public void addServlet(String httpCommand, String uri, Servlet s) {
-        ConcurrentHashMap<String, Servlet> currentServlet = getServletMap(httpCommand);
-        currentServlet.put(uri, s);
+        router.add(httpCommand, uri, s);
     }
 
     /**
@@ -55,23 +121,7 @@ public class MyHTTPServer extends Thread implements HTTPServer {
      * @param uri the URI for which the servlet will be removed
      */
     public void removeServlet(String httpCommand, String uri) {
-        ConcurrentHashMap<String, Servlet> currentServlet = getServletMap(httpCommand);
-        currentServlet.remove(uri);
-    }
-
-    /**
-     * Returns the servlet map for the specified HTTP command.
-     *
-     * @param httpCommand the HTTP command (GET, POST, DELETE)
-     * @return the servlet map for the specified HTTP command
-     */
-    private ConcurrentHashMap<String, Servlet> getServletMap(String httpCommand) {
-        return switch (httpCommand.toLowerCase()) {
-            case "get" -> get;
-            case "post" -> post;
-            case "delete" -> delete;
-            default -> throw new IllegalArgumentException("Unsupported HTTP command: " + httpCommand);
-        };
+        router.remove(httpCommand, uri);
     }
 
     /**
@@ -104,28 +154,45 @@ public class MyHTTPServer extends Thread implements HTTPServer {
     }
 
     /**
-     * Handles a client connection, reading the request and dispatching it to the appropriate servlet.
+     * Handles a client connection, reading its requests one by one and dispatching each to the appropriate servlet.
+     * Responses to pipelined requests are only flushed once no further request is already buffered, so a
+     * pipelined burst is answered in as few writes as possible.
      *
      * @param clientSocket the client socket
      */
     private void handleClient(Socket clientSocket) {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()))) {
-            // Read client request
-            RequestInfo request = RequestParser.parseRequest(reader);
-            ConcurrentHashMap<String, Servlet> currentServlet = getServletMap(request.getHttpCommand());
-
-            // Search for the longest URI match
-            String longestMatch = "";
-            for (String key : currentServlet.keySet()) {
-                if (request.getUri().startsWith(key) && key.length() > longestMatch.length()) {
-                    longestMatch = key;
+        try {
+            clientSocket.setSoTimeout(keepAliveMillis);
+            InputStream in = new BufferedInputStream(clientSocket.getInputStream());
+            OutputStream out = new BufferedOutputStream(clientSocket.getOutputStream());
+            for (int served = 1; ; served++) {
+                RequestInfo request;
+                try {
+                    request = RequestParser.parseRequest(in);
+                } catch (SocketTimeoutException e) {
+                    // Idle for longer than the keep-alive timeout
+                    break;
+                } catch (BadRequestException e) {
+                    // The next request cannot be found after a malformed one, so the connection ends here
+                    out.write(e.toResponse());
+                    out.flush();
+                    break;
+                }
+                if (request == null) {
+                    break;
+                }
+                boolean keepAlive = !close && served < maxRequests && request.isKeepAlive();
+                ResponseFramer response = new ResponseFramer(out, keepAlive, Math.max(1, keepAliveMillis / 1000),
+                        maxRequests - served, request.getProtocol());
+                router.dispatch(request, response);
+                keepAlive = response.finish();
+                if (!keepAlive || in.available() == 0) {
+                    out.flush();
+                }
+                if (!keepAlive) {
+                    break;
                 }
             }
-
-            currentServlet.get(longestMatch).handle(request, clientSocket.getOutputStream());
-
-            // Close stream and socket
-            reader.close();
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
@@ -0,0 +1,592 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import server.RequestParser.RequestInfo;
+import servlets.Servlet;
+
+/**
+ * The NioHTTPServer class implements the HTTPServer interface on non-blocking channels.
+ * One acceptor thread hands new connections to a few event-loop threads, each with its own selector. An event
+ * loop feeds whatever bytes have arrived to the connection's {@link RequestDecoder}; once a request is complete,
+ * it is handled by a servlet on the worker pool, and the framed response is written back by the event loop
+ * without blocking. A connection waiting for bytes holds no thread, so thousands of idle or slow clients cost
+ * little more than their sockets, and servlets run unchanged.
+ * <p>
+ * Connections are kept alive like those of {@link MyHTTPServer}: pipelined requests are served in order, and a
+ * connection is closed after {@link MyHTTPServer#DEFAULT_MAX_REQUESTS} requests or once it has waited
+ * {@link MyHTTPServer#DEFAULT_KEEP_ALIVE_MILLIS} for its next request.
+ * <p>
+ * A response reaches the event loop whenever its servlet flushes an event stream, and otherwise once the servlet
+ * is done. A servlet streaming faster than its client reads is held in flush until the queued bytes drain. A
+ * servlet may {@link ResponseFramer#detach()} its response and return, so a long-lived stream releases its worker
+ * thread and is written by the event loop as the servlet sends more.
+ */
+public class NioHTTPServer extends Thread implements HTTPServer {
+    private static final int READ_BUFFER = 64 << 10;
+    // A worker flushing a response blocks while more than this many bytes of it wait to be written
+    private static final int MAX_QUEUED = 1 << 20;
+    // A detached response counts as backlogged while more than this many bytes of it wait to be written
+    private static final int BACKLOG = 64 << 10;
+    private static final int KEEP_ALIVE_MILLIS = MyHTTPServer.DEFAULT_KEEP_ALIVE_MILLIS;
+    private static final int MAX_REQUESTS = MyHTTPServer.DEFAULT_MAX_REQUESTS;
+
+    private final int port;
+    private final ServletRouter router = new ServletRouter();
+    private final EventLoop[] loops;
+    private final ExecutorService workers;
+    private volatile ServerSocketChannel serverChannel;
+    private volatile boolean close = false;
+
+    /**
+     * Constructs a NioHTTPServer.
+     *
+     * @param port the port number on which the server will listen
+     * @param nLoops the number of event-loop threads
+     * @param nWorkers the number of threads running servlets
+     */
+    public NioHTTPServer(int port, int nLoops, int nWorkers) {
+        this.port = port;
+        this.loops = new EventLoop[Math.max(1, nLoops)];
+        this.workers = Executors.newFixedThreadPool(nWorkers);
+    }
+
+    /**
+     * Adds a servlet to handle requests for the specified HTTP command and URI.
+     *
+     * @param httpCommand the HTTP command (GET, POST, DELETE)
+     * @param uri the URI for which the servlet will handle requests
+     * @param s the servlet to handle requests
+     */
+    @Override
+    public void addServlet(String httpCommand, String uri, Servlet s) {
+        router.add(httpCommand, uri, s);
+    }
+
+    /**
+     * Removes a servlet for the specified HTTP command and URI.
+     *
+     * @param httpCommand the HTTP command (GET, POST, DELETE)
+     * @param uri the URI for which the servlet will be removed
+     */
+    @Override
+    public void removeServlet(String httpCommand, String uri) {
+        router.remove(httpCommand, uri);
+    }
+
+    /**
+     * Runs the acceptor: starts the event loops and hands every accepted connection to the next loop in turn.
+     */
+    @Override
+    public void run() {
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            channel.bind(new InetSocketAddress(port));
+            serverChannel = channel;
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop(Selector.open());
+                Thread t = new Thread(loops[i], "nio-loop-" + i);
+                t.setDaemon(true);
+                t.start();
+            }
+            int next = 0;
+            while (!close) {
+                SocketChannel client;
+                try {
+                    client = channel.accept();
+                } catch (IOException e) {
+                    // Closing the server channel ends the blocking accept
+                    continue;
+                }
+                client.configureBlocking(false);
+                loops[next].register(client);
+                next = (next + 1) % loops.length;
+            }
+        } catch (IOException e) {
+            if (!close) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Closes the server: stops accepting, closes every connection and shuts down the worker pool.
+     */
+    @Override
+    public void close() {
+        close = true;
+        try {
+            ServerSocketChannel channel = serverChannel;
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ignored) {
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.close();
+            }
+        }
+        workers.shutdown();
+    }
+
+    /**
+     * Runs the servlet of a request on a worker thread and hands the framed response to the event loop.
+     * If the servlet fails with an Error, the connection is closed instead of waiting forever for its response.
+     *
+     * @param ri the request
+     * @param conn the connection of the request, whose keep-alive flag is updated from the response
+     * @param keepAlive whether the connection may be kept open after this response
+     * @param output the stream passing the response to the event loop
+     */
+    private void handle(RequestInfo ri, Connection conn, boolean keepAlive, EventLoop.Output output) {
+        ResponseFramer framer = new ResponseFramer(output, keepAlive, KEEP_ALIVE_MILLIS / 1000,
+                MAX_REQUESTS - conn.served, ri.getProtocol());
+        boolean ended = false;
+        try {
+            try {
+                router.dispatch(ri, framer);
+            } catch (IOException | RuntimeException e) {
+                if (output.isOpen()) {
+                    e.printStackTrace();
+                }
+            }
+            if (framer.isDetached()) {
+                // The servlet ends the response through its ResponseStream
+                ended = true;
+                return;
+            }
+            boolean kept;
+            try {
+                kept = framer.finish();
+            } catch (IOException e) {
+                // The connection closed while the response was streaming
+                kept = false;
+            }
+            output.end(kept);
+            ended = true;
+        } finally {
+            if (!ended) {
+                output.end(false);
+            }
+        }
+    }
+
+    /**
+     * The state of one connection: its decoder, the bytes received but not yet decoded and the response being
+     * written. The event loop owns it; the worker running a servlet only queues response bytes, counted under the
+     * connection's lock, and sets the keep-alive and done flags before waking the loop.
+     */
+    private static class Connection {
+        final RequestDecoder decoder = new RequestDecoder();
+        final ConcurrentLinkedQueue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+        ByteBuffer in;
+        int served;
+        long queued;
+        volatile boolean keepAlive;
+        // Set once the whole response is queued
+        volatile boolean done;
+        long lastActive = System.currentTimeMillis();
+
+        /**
+         * Counts bytes queued for writing.
+         *
+         * @param n the number of bytes
+         */
+        synchronized void queued(int n) {
+            queued += n;
+        }
+
+        /**
+         * Counts bytes written and wakes a worker waiting for the queue to drain.
+         *
+         * @param n the number of bytes
+         */
+        synchronized void sent(int n) {
+            queued -= n;
+            if (queued <= MAX_QUEUED) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * An event-loop thread owning a selector and the connections registered with it.
+     * Other threads never touch its selection keys; they queue tasks that the loop runs between selects.
+     */
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER);
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * Hands a new connection to this loop.
+         *
+         * @param client the accepted connection, in non-blocking mode
+         */
+        void register(SocketChannel client) {
+            execute(() -> {
+                try {
+                    client.register(selector, SelectionKey.OP_READ, new Connection());
+                } catch (IOException e) {
+                    closeQuietly(client);
+                }
+            });
+        }
+
+        /**
+         * Runs a task on the loop thread.
+         *
+         * @param task the task
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Selects ready connections and serves them until the server closes.
+         */
+        @Override
+        public void run() {
+            try {
+                long nextSweep = System.currentTimeMillis() + 1000;
+                while (!close) {
+                    selector.select(1000);
+                    if (System.currentTimeMillis() >= nextSweep) {
+                        closeIdle();
+                        nextSweep = System.currentTimeMillis() + 1000;
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        try {
+                            if (key.isReadable()) {
+                                read(key);
+                            } else if (key.isWritable()) {
+                                write(key);
+                            }
+                        } catch (IOException e) {
+                            closeQuietly(key);
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (!close) {
+                    e.printStackTrace();
+                }
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly(key);
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        /**
+         * Closes the connections that have waited longer than the keep-alive timeout for a request, leaving those
+         * whose request is being handled or whose response is being written.
+         */
+        private void closeIdle() {
+            long deadline = System.currentTimeMillis() - KEEP_ALIVE_MILLIS;
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid() && key.interestOps() == SelectionKey.OP_READ
+                        && ((Connection) key.attachment()).lastActive < deadline) {
+                    closeQuietly(key);
+                }
+            }
+        }
+
+        /**
+         * Reads the bytes that have arrived and dispatches the request once it is complete.
+         *
+         * @param key the key of the connection
+         * @throws IOException if the connection fails
+         */
+        private void read(SelectionKey key) throws IOException {
+            SocketChannel client = (SocketChannel) key.channel();
+            Connection conn = (Connection) key.attachment();
+            readBuffer.clear();
+            int n = client.read(readBuffer);
+            if (n < 0) {
+                closeQuietly(key);
+                return;
+            }
+            if (n == 0) {
+                return;
+            }
+            conn.lastActive = System.currentTimeMillis();
+            readBuffer.flip();
+            if (conn.in == null) {
+                conn.in = ByteBuffer.allocate(Math.max(4096, n));
+            } else if (conn.in.remaining() < n) {
+                // Bodies are drained by the decoder, so only headers and pipelined requests accumulate here
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(conn.in.capacity() * 2, conn.in.position() + n));
+                conn.in.flip();
+                bigger.put(conn.in);
+                conn.in = bigger;
+            }
+            conn.in.put(readBuffer);
+            dispatchNext(key, conn);
+        }
+
+        /**
+         * Decodes the buffered bytes of a connection and hands a completed request to the worker pool, or waits
+         * for more bytes.
+         *
+         * @param key the key of the connection
+         * @param conn the connection
+         */
+        private void dispatchNext(SelectionKey key, Connection conn) {
+            if (conn.in == null) {
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            RequestInfo request;
+            conn.in.flip();
+            try {
+                request = conn.decoder.decode(conn.in);
+            } catch (BadRequestException e) {
+                // Malformed or too large: there is no way to find the next request on this connection, so the
+                // error response is the last one
+                conn.in = null;
+                byte[] response = e.toResponse();
+                conn.queued(response.length);
+                conn.out.add(ByteBuffer.wrap(response));
+                conn.keepAlive = false;
+                conn.done = true;
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            conn.in.compact();
+            if (conn.in.position() == 0) {
+                // Idle connections keep no buffer
+                conn.in = null;
+            }
+            if (request == null) {
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            conn.served++;
+            boolean keepAlive = !close && conn.served < MAX_REQUESTS && request.isKeepAlive();
+            // Stop reading until the response has been written; pipelined bytes wait in the buffer
+            key.interestOps(0);
+            workers.execute(() -> handle(request, conn, keepAlive, new Output(key, conn)));
+        }
+
+        /**
+         * Writes as much of the response as the socket accepts. Once it is written, the connection is closed or
+         * goes on with its next request.
+         *
+         * @param key the key of the connection
+         * @throws IOException if the connection fails
+         */
+        private void write(SelectionKey key) throws IOException {
+            SocketChannel client = (SocketChannel) key.channel();
+            Connection conn = (Connection) key.attachment();
+            ByteBuffer next;
+            while ((next = conn.out.peek()) != null) {
+                client.write(next);
+                if (next.hasRemaining()) {
+                    return;
+                }
+                conn.out.poll();
+                conn.sent(next.capacity());
+            }
+            if (!conn.done) {
+                // The servlet is still writing; its next flush wakes the loop again
+                key.interestOps(0);
+                return;
+            }
+            conn.done = false;
+            if (!conn.keepAlive) {
+                closeQuietly(key);
+                return;
+            }
+            conn.lastActive = System.currentTimeMillis();
+            dispatchNext(key, conn);
+        }
+
+        /**
+         * Wakes the loop so it sees that the server is closing and closes its connections and selector.
+         */
+        void close() {
+            selector.wakeup();
+        }
+
+        /**
+         * The stream a worker writes a response to. Bytes are collected until a flush, then queued on the
+         * connection and written by the event loop.
+         */
+        private class Output extends OutputStream implements ResponseFramer.Target {
+            private final SelectionKey key;
+            private final Connection conn;
+            private final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+
+            Output(SelectionKey key, Connection conn) {
+                this.key = key;
+                this.conn = conn;
+            }
+
+            /**
+             * Collects one byte.
+             *
+             * @param b the byte
+             */
+            @Override
+            public void write(int b) {
+                buf.write(b);
+            }
+
+            /**
+             * Collects bytes.
+             *
+             * @param b the bytes
+             * @param off the offset of the first byte
+             * @param len the number of bytes
+             */
+            @Override
+            public void write(byte[] b, int off, int len) {
+                buf.write(b, off, len);
+            }
+
+            /**
+             * Queues the collected bytes for the event loop, waiting while too many bytes are still unsent.
+             *
+             * @throws IOException if the connection has been closed
+             */
+            @Override
+            public void flush() throws IOException {
+                if (!isOpen()) {
+                    throw new IOException("Connection closed");
+                }
+                if (buf.size() > 0) {
+                    queue();
+                }
+                try {
+                    synchronized (conn) {
+                        while (conn.queued > MAX_QUEUED && isOpen()) {
+                            conn.wait(100);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the client");
+                }
+                if (!isOpen()) {
+                    throw new IOException("Connection closed");
+                }
+            }
+
+            /**
+             * Queues the rest of the response and tells the event loop that it is complete.
+             *
+             * @param keepAlive whether the connection can be kept open after the response
+             */
+            @Override
+            public void end(boolean keepAlive) {
+                if (buf.size() > 0) {
+                    queue();
+                }
+                conn.keepAlive = keepAlive;
+                conn.done = true;
+                wake();
+            }
+
+            /**
+             * Checks whether the connection is still open.
+             *
+             * @return true if the event loop has not closed the connection
+             */
+            @Override
+            public boolean isOpen() {
+                return key.isValid();
+            }
+
+            /**
+             * Checks whether many queued bytes of the response have not been written yet.
+             *
+             * @return true if the client has fallen behind
+             */
+            @Override
+            public boolean isBacklogged() {
+                synchronized (conn) {
+                    return conn.queued > BACKLOG;
+                }
+            }
+
+            /**
+             * Moves the collected bytes to the connection's queue and wakes the event loop to write them.
+             */
+            private void queue() {
+                byte[] bytes = buf.toByteArray();
+                buf.reset();
+                conn.queued(bytes.length);
+                conn.out.add(ByteBuffer.wrap(bytes));
+                wake();
+            }
+
+            /**
+             * Asks the event loop to write the queued bytes. The loop checks that there is still something to do,
+             * since it may already have written the bytes and gone on with the next request.
+             */
+            private void wake() {
+                execute(() -> {
+                    if (key.isValid() && (!conn.out.isEmpty() || conn.done)) {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Cancels a key and closes its connection, ignoring errors.
+     *
+     * @param key the key of the connection
+     */
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        closeQuietly((SocketChannel) key.channel());
+    }
+
+    /**
+     * Closes a connection, ignoring errors.
+     *
+     * @param client the connection
+     */
+    private static void closeQuietly(SocketChannel client) {
+        try {
+            client.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
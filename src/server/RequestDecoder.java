@@ -0,0 +1,350 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import server.RequestParser.RequestInfo;
+
+/**
+ * The RequestDecoder class parses HTTP requests incrementally from the bytes of one connection, for servers that
+ * read a connection in pieces. The server feeds every buffer it reads to {@link #decode(ByteBuffer)}, which
+ * consumes what it can and returns a request once one is complete; bytes after the request stay in the buffer
+ * for the next call, so pipelined requests are decoded in turn. One decoder is reused for all requests of its
+ * connection.
+ * <p>
+ * The request line and headers are parsed in place once the blank line ending them has arrived, reading the
+ * buffer directly instead of copying the header block; the search for that blank line resumes where the previous
+ * call stopped, so a header trickling in byte by byte is still scanned once. The body is copied out as raw bytes
+ * by Content-Length or chunked transfer encoding. Headers and bodies larger than the configured limits fail the
+ * request instead of growing without bound.
+ */
+public class RequestDecoder {
+    /** The default limit for the request line and headers together, in bytes. */
+    public static final int DEFAULT_MAX_HEADER = 16 << 10;
+    /** The default limit for a request body, in bytes. */
+    public static final int DEFAULT_MAX_BODY = 16 << 20;
+    // The longest chunk-size or trailer line accepted
+    private static final int MAX_LINE = 1024;
+
+    private enum State { HEAD, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILER }
+
+    private final int maxHeader;
+    private final int maxBody;
+
+    private State state = State.HEAD;
+    // How many bytes after the buffer's position were already searched for the end of the headers
+    private int scanned = 0;
+    private String httpCommand;
+    private String uri;
+    private String protocol;
+    private Map<String, String> headers;
+    private byte[] body;
+    private int bodyFill;
+    private ByteArrayOutputStream chunks;
+    private int chunkRemaining;
+
+    /**
+     * Creates a decoder with the default size limits.
+     */
+    public RequestDecoder() {
+        this(DEFAULT_MAX_HEADER, DEFAULT_MAX_BODY);
+    }
+
+    /**
+     * Creates a decoder.
+     *
+     * @param maxHeader the limit for the request line and headers together, in bytes
+     * @param maxBody the limit for a request body, in bytes
+     */
+    public RequestDecoder(int maxHeader, int maxBody) {
+        this.maxHeader = maxHeader;
+        this.maxBody = maxBody;
+    }
+
+    /**
+     * Consumes bytes of the connection and returns the request they complete.
+     * The buffer is read from its position to its limit; on return its position is just after the consumed bytes.
+     * When no request is returned, every byte of a body has been consumed, but the bytes of incomplete headers
+     * are left in the buffer, so the caller should keep them (for example with {@link ByteBuffer#compact()}) and
+     * call again once more bytes have arrived.
+     *
+     * @param in the bytes received, in read mode
+     * @return the completed request, or null if more bytes are needed
+     * @throws BadRequestException if the request is malformed or exceeds a size limit, carrying the status to
+     *         answer with; the decoder must not be used again
+     */
+    public RequestInfo decode(ByteBuffer in) throws BadRequestException {
+        while (true) {
+            switch (state) {
+                case HEAD -> {
+                    skipBlankLines(in);
+                    int end = headEnd(in);
+                    if (end < 0) {
+                        if (in.remaining() > maxHeader) {
+                            throw new BadRequestException(BadRequestException.HEADERS_TOO_LARGE,
+                                    "Request headers too large");
+                        }
+                        return null;
+                    }
+                    if (end - in.position() > maxHeader) {
+                        throw new BadRequestException(BadRequestException.HEADERS_TOO_LARGE,
+                                "Request headers too large");
+                    }
+                    parseHead(in, in.position(), end);
+                    in.position(end);
+                    scanned = 0;
+                    if ("chunked".equalsIgnoreCase(headers.get("Transfer-Encoding"))) {
+                        chunks = new ByteArrayOutputStream();
+                        state = State.CHUNK_SIZE;
+                    } else {
+                        int length = RequestParser.contentLength(headers, maxBody);
+                        body = new byte[length];
+                        bodyFill = 0;
+                        state = State.BODY;
+                    }
+                }
+                case BODY -> {
+                    int n = Math.min(in.remaining(), body.length - bodyFill);
+                    in.get(body, bodyFill, n);
+                    bodyFill += n;
+                    if (bodyFill < body.length) {
+                        return null;
+                    }
+                    return complete(body);
+                }
+                case CHUNK_SIZE -> {
+                    String line = readLine(in);
+                    if (line == null) {
+                        return null;
+                    }
+                    int semicolon = line.indexOf(';');
+                    int size;
+                    try {
+                        size = Integer.parseInt((semicolon < 0 ? line : line.substring(0, semicolon)).trim(), 16);
+                    } catch (NumberFormatException e) {
+                        throw new BadRequestException(BadRequestException.BAD_REQUEST, "Malformed chunk size: " + line);
+                    }
+                    if (size < 0 || chunks.size() + (long) size > maxBody) {
+                        throw new BadRequestException(BadRequestException.CONTENT_TOO_LARGE, "Request body too large");
+                    }
+                    chunkRemaining = size;
+                    state = size == 0 ? State.TRAILER : State.CHUNK_DATA;
+                }
+                case CHUNK_DATA -> {
+                    int n = Math.min(in.remaining(), chunkRemaining);
+                    if (in.hasArray()) {
+                        chunks.write(in.array(), in.arrayOffset() + in.position(), n);
+                        in.position(in.position() + n);
+                    } else {
+                        byte[] bytes = new byte[n];
+                        in.get(bytes);
+                        chunks.write(bytes, 0, n);
+                    }
+                    chunkRemaining -= n;
+                    if (chunkRemaining > 0) {
+                        return null;
+                    }
+                    state = State.CHUNK_END;
+                }
+                case CHUNK_END -> {
+                    if (readLine(in) == null) {
+                        return null;
+                    }
+                    state = State.CHUNK_SIZE;
+                }
+                case TRAILER -> {
+                    String line = readLine(in);
+                    if (line == null) {
+                        return null;
+                    }
+                    // Trailer headers are not used; an empty line ends the request
+                    if (line.isEmpty()) {
+                        return complete(chunks.toByteArray());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether the decoder is between requests, so the connection can be closed without losing one.
+     *
+     * @return true if no bytes of a request have been consumed since the last completed request
+     */
+    public boolean isIdle() {
+        return state == State.HEAD;
+    }
+
+    /**
+     * Forgets any partly decoded request.
+     */
+    public void reset() {
+        state = State.HEAD;
+        scanned = 0;
+        headers = null;
+        body = null;
+        chunks = null;
+    }
+
+    /**
+     * Builds the completed request and gets ready for the next one.
+     *
+     * @param content the body
+     * @return the request
+     */
+    private RequestInfo complete(byte[] content) {
+        RequestInfo request = RequestParser.newRequest(httpCommand, uri, protocol, headers, content);
+        reset();
+        return request;
+    }
+
+    /**
+     * Skips the empty lines a client may send between requests.
+     *
+     * @param in the bytes received
+     */
+    private void skipBlankLines(ByteBuffer in) {
+        if (scanned > 0) {
+            return;
+        }
+        while (in.hasRemaining() && (in.get(in.position()) == '\r' || in.get(in.position()) == '\n')) {
+            in.position(in.position() + 1);
+        }
+    }
+
+    /**
+     * Searches for the blank line ending the headers, resuming after the bytes searched by earlier calls.
+     *
+     * @param in the bytes received
+     * @return the index just after the blank line, or -1 if it has not arrived yet
+     */
+    private int headEnd(ByteBuffer in) {
+        int start = in.position();
+        int limit = in.limit();
+        // Back up far enough to find a terminator split across two calls
+        for (int i = start + Math.max(0, scanned - 3); i < limit; i++) {
+            if (in.get(i) != '\n') {
+                continue;
+            }
+            if (i + 1 < limit && in.get(i + 1) == '\n') {
+                return i + 2;
+            }
+            if (i + 2 < limit && in.get(i + 1) == '\r' && in.get(i + 2) == '\n') {
+                return i + 3;
+            }
+        }
+        scanned = limit - start;
+        return -1;
+    }
+
+    /**
+     * Parses the request line and headers in place.
+     *
+     * @param in the bytes received
+     * @param start the index of the request line
+     * @param end the index just after the blank line ending the headers
+     * @throws BadRequestException if the request line is malformed
+     */
+    private void parseHead(ByteBuffer in, int start, int end) throws BadRequestException {
+        int lineEnd = lineEnd(in, start, end);
+        String[] requestLine = RequestParser.parseRequestLine(text(in, start, lineEnd));
+        httpCommand = requestLine[0];
+        uri = requestLine[1];
+        protocol = requestLine[2];
+        headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        int pos = next(in, lineEnd, end);
+        while (pos < end) {
+            lineEnd = lineEnd(in, pos, end);
+            if (lineEnd == pos) {
+                break;
+            }
+            int colon = -1;
+            for (int i = pos; i < lineEnd; i++) {
+                if (in.get(i) == ':') {
+                    colon = i;
+                    break;
+                }
+            }
+            if (colon > pos) {
+                headers.put(text(in, pos, colon).trim(), text(in, colon + 1, lineEnd).trim());
+            }
+            pos = next(in, lineEnd, end);
+        }
+    }
+
+    /**
+     * Finds the end of a line, excluding its CR if there is one.
+     *
+     * @param in the bytes received
+     * @param from the index of the line
+     * @param end the index where the search stops
+     * @return the index of the line's CR or LF
+     */
+    private static int lineEnd(ByteBuffer in, int from, int end) {
+        int i = from;
+        while (i < end && in.get(i) != '\n') {
+            i++;
+        }
+        return i > from && in.get(i - 1) == '\r' ? i - 1 : i;
+    }
+
+    /**
+     * Skips the terminator of a line.
+     *
+     * @param in the bytes received
+     * @param lineEnd the index returned by {@link #lineEnd}
+     * @param end the index where the search stops
+     * @return the index of the next line
+     */
+    private static int next(ByteBuffer in, int lineEnd, int end) {
+        int i = lineEnd;
+        if (i < end && in.get(i) == '\r') {
+            i++;
+        }
+        return Math.min(end, i + 1);
+    }
+
+    /**
+     * Decodes a range of the buffer as ISO-8859-1, straight from the backing array when there is one.
+     *
+     * @param in the bytes received
+     * @param from the index of the first byte
+     * @param to the index after the last byte
+     * @return the text
+     */
+    private static String text(ByteBuffer in, int from, int to) {
+        if (in.hasArray()) {
+            return new String(in.array(), in.arrayOffset() + from, to - from, StandardCharsets.ISO_8859_1);
+        }
+        byte[] bytes = new byte[to - from];
+        in.get(from, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Consumes one line of a chunked body.
+     *
+     * @param in the bytes received
+     * @return the line without its terminator, or null if it has not fully arrived
+     * @throws BadRequestException if the line is too long
+     */
+    private static String readLine(ByteBuffer in) throws BadRequestException {
+        int start = in.position();
+        int limit = in.limit();
+        for (int i = start; i < limit; i++) {
+            if (in.get(i) == '\n') {
+                int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+                String line = text(in, start, end);
+                in.position(i + 1);
+                return line;
+            }
+        }
+        if (limit - start > MAX_LINE) {
+            throw new BadRequestException(BadRequestException.BAD_REQUEST, "Chunk line too long");
+        }
+        return null;
+    }
+}
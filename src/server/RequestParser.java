@@ -1,18 +1,30 @@
 package server;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.TreeMap;
 
 /**
  * The RequestParser class provides methods to parse HTTP requests.
  */
 public class RequestParser {
+    // The longest request line or header accepted by the stream parser
+    private static final int MAX_LINE = 8192;
 
     /**
      * Parses an HTTP request from the given BufferedReader.
+     * A reader has already decoded the bytes of the request into chars, so the body is read as up to
+     * Content-Length chars; servers should prefer {@link #parseRequest(InputStream)} or a {@link RequestDecoder},
+     * which keep the body as bytes.
      *
      * @param reader the BufferedReader to read the request from
      * @return a RequestInfo object containing the parsed request information
@@ -24,72 +36,362 @@ public class RequestParser {
         if (firstLine == null) {
             throw new IOException();
         }
+        String[] requestLine = parseRequestLine(firstLine);
 
-        String[] firstLineParts = firstLine.split(" "); // Split by spaces
-        String requestBody = "";
-        // Extract HTTP command, URI, and protocol version
-        String httpCommand = firstLineParts[0];
-        String uri = firstLineParts[1];
+        String line;
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            addHeader(headers, line);
+        }
 
-        ArrayList<String> address = new ArrayList<>();
-        for (String s : uri.split("/")) {
-            if (!s.isEmpty()) {
-                if (s.contains("?")) {
-                    address.add(s.split("\\?")[0]);
-                } else {
-                    address.add(s);
-                }
+        int length = contentLength(headers, RequestDecoder.DEFAULT_MAX_BODY);
+        char[] body = new char[length];
+        int read = 0;
+        int n;
+        while (read < length && (n = reader.read(body, read, length - read)) > 0) {
+            read += n;
+        }
+        byte[] content = new String(body, 0, read).getBytes(StandardCharsets.UTF_8);
+        return newRequest(requestLine[0], requestLine[1], requestLine[2], headers, content);
+    }
+
+    /**
+     * Parses exactly one HTTP request from a stream, leaving any bytes after it unread, so several requests
+     * sent on one connection (pipelined or one after another) can be parsed in turn.
+     * The body is read according to Content-Length or chunked transfer encoding. For a multipart form upload,
+     * the content is the first part and its file name is stored as the {@code filename} parameter.
+     *
+     * @param in the stream to read the request from
+     * @return the parsed request, or null if the stream ended before a new request started
+     * @throws IOException if an I/O error occurs, the stream ends inside the request or the request is malformed
+     */
+    public static RequestInfo parseRequest(InputStream in) throws IOException {
+        return parseRequest(in, RequestDecoder.DEFAULT_MAX_HEADER, RequestDecoder.DEFAULT_MAX_BODY);
+    }
+
+    /**
+     * Parses exactly one HTTP request from a stream like {@link #parseRequest(InputStream)}, with the given size
+     * limits.
+     *
+     * @param in the stream to read the request from
+     * @param maxHeader the limit for the request line and headers together, in bytes
+     * @param maxBody the limit for the body, in bytes
+     * @return the parsed request, or null if the stream ended before a new request started
+     * @throws BadRequestException if the request is malformed or exceeds a size limit
+     * @throws IOException if an I/O error occurs or the stream ends inside the request
+     */
+    public static RequestInfo parseRequest(InputStream in, int maxHeader, int maxBody) throws IOException {
+        String firstLine = readLine(in);
+        // Blank lines between requests are allowed
+        while (firstLine != null && firstLine.isEmpty()) {
+            firstLine = readLine(in);
+        }
+        if (firstLine == null) {
+            return null;
+        }
+        String[] requestLine = parseRequestLine(firstLine);
+
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String line;
+        int headerBytes = firstLine.length();
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            headerBytes += line.length();
+            if (headerBytes > maxHeader) {
+                throw new BadRequestException(BadRequestException.HEADERS_TOO_LARGE, "Request headers too large");
+            }
+            addHeader(headers, line);
+        }
+        if (line == null) {
+            throw new EOFException("Connection closed inside the request headers");
+        }
+
+        byte[] body;
+        if ("chunked".equalsIgnoreCase(headers.get("Transfer-Encoding"))) {
+            body = readChunked(in, maxBody);
+        } else {
+            int length = contentLength(headers, maxBody);
+            body = in.readNBytes(length);
+            if (body.length < length) {
+                throw new EOFException("Connection closed inside the request body");
             }
         }
-        uri = uri.trim();
+        return newRequest(requestLine[0], requestLine[1], requestLine[2], headers, body);
+    }
 
-        // Create an array to store the segments
-        String[] segments = new String[address.size()];
-        segments = address.toArray(segments);
+    /**
+     * Builds a request from its parsed parts, extracting the query parameters, the path segments and, for a
+     * multipart form upload, the content and file name of the first part.
+     *
+     * @param httpCommand the HTTP command
+     * @param uri the URI, including the query string
+     * @param protocol the protocol version
+     * @param headers the headers, looked up ignoring case
+     * @param body the body as received
+     * @return the request
+     */
+    static RequestInfo newRequest(String httpCommand, String uri, String protocol, Map<String, String> headers,
+            byte[] body) {
+        Map<String, String> parameters = parseParameters(uri);
+        String contentType = headers.get("Content-Type");
+        if (contentType != null && contentType.regionMatches(true, 0, "multipart/form-data", 0, 19)) {
+            body = firstPart(body, contentType, parameters);
+        }
+        return new RequestInfo(httpCommand, uri, parseSegments(uri), parameters, body, headers, protocol);
+    }
 
-        // Parse query parameters (if any)
-        Map<String, String> parameters = new HashMap<>();
+    /**
+     * Splits a request line into command, URI and protocol version.
+     *
+     * @param line the request line
+     * @return the command, the URI and the protocol version, HTTP/1.0 if the line has none
+     * @throws BadRequestException if the line has no URI
+     */
+    static String[] parseRequestLine(String line) throws BadRequestException {
+        int first = line.indexOf(' ');
+        if (first <= 0) {
+            throw new BadRequestException(BadRequestException.BAD_REQUEST, "Malformed request line: " + line);
+        }
+        int uriStart = first + 1;
+        while (uriStart < line.length() && line.charAt(uriStart) == ' ') {
+            uriStart++;
+        }
+        int second = line.indexOf(' ', uriStart);
+        String uri = (second < 0 ? line.substring(uriStart) : line.substring(uriStart, second)).trim();
+        if (uri.isEmpty()) {
+            throw new BadRequestException(BadRequestException.BAD_REQUEST, "Malformed request line: " + line);
+        }
+        String protocol = second < 0 ? "" : line.substring(second + 1).trim();
+        return new String[] {line.substring(0, first), uri, protocol.isEmpty() ? "HTTP/1.0" : protocol};
+    }
+
+    /**
+     * Adds one header line to the headers, ignoring lines without a name.
+     *
+     * @param headers the headers
+     * @param line the header line
+     */
+    static void addHeader(Map<String, String> headers, String line) {
+        int colon = line.indexOf(':');
+        if (colon > 0) {
+            headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+        }
+    }
+
+    /**
+     * Reads the Content-Length header.
+     *
+     * @param headers the headers
+     * @param maxBody the largest body accepted, in bytes
+     * @return the announced body length, or 0 if there is none
+     * @throws BadRequestException if the header is malformed or the body is larger than the limit
+     */
+    static int contentLength(Map<String, String> headers, int maxBody) throws BadRequestException {
+        String value = headers.get("Content-Length");
+        if (value == null) {
+            return 0;
+        }
+        long length;
+        try {
+            length = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException(BadRequestException.BAD_REQUEST, "Malformed Content-Length: " + value);
+        }
+        if (length < 0) {
+            throw new BadRequestException(BadRequestException.BAD_REQUEST, "Malformed Content-Length: " + value);
+        }
+        if (length > maxBody) {
+            throw new BadRequestException(BadRequestException.CONTENT_TOO_LARGE, "Request body too large: " + length);
+        }
+        return (int) length;
+    }
 
-        if (uri.contains("?")) {
-            String[] uriArray = uri.split("\\?");
-            String[] paramPairs = uriArray[1].split("&");
-            for (String p : paramPairs) {
-                String[] values = p.split("=");
-                parameters.put(values[0], values[1]);
+    /**
+     * Splits the path of a URI into its non-empty segments, without the query string.
+     *
+     * @param uri the URI
+     * @return the path segments
+     */
+    private static String[] parseSegments(String uri) {
+        ArrayList<String> address = new ArrayList<>();
+        int query = uri.indexOf('?');
+        int end = query < 0 ? uri.length() : query;
+        int start = 0;
+        while (start < end) {
+            int slash = uri.indexOf('/', start);
+            if (slash < 0 || slash > end) {
+                slash = end;
+            }
+            if (slash > start) {
+                address.add(uri.substring(start, slash));
             }
+            start = slash + 1;
         }
+        return address.toArray(new String[0]);
+    }
 
-        String line;
-        Map<String, String> header = new HashMap<>();
-        int length = 0;
-        while (!(line = reader.readLine()).isEmpty()) {
-            String[] headers = line.split(": ");
-            if (headers.length == 2) {
-                header.put(headers[0], headers[1]);
-                if (headers[0].equalsIgnoreCase("Content-Length")) {
-                    length = Integer.parseInt(headers[1]);
+    /**
+     * Parses the query parameters of a URI.
+     *
+     * @param uri the URI
+     * @return the parameters by name; a parameter without a value maps to an empty string
+     */
+    private static Map<String, String> parseParameters(String uri) {
+        Map<String, String> parameters = new HashMap<>();
+        int query = uri.indexOf('?');
+        if (query < 0) {
+            return parameters;
+        }
+        // A second '?' ends the query string
+        int end = uri.indexOf('?', query + 1);
+        if (end < 0) {
+            end = uri.length();
+        }
+        int start = query + 1;
+        while (start < end) {
+            int amp = uri.indexOf('&', start);
+            if (amp < 0 || amp > end) {
+                amp = end;
+            }
+            int eq = uri.indexOf('=', start);
+            if (eq < 0 || eq > amp) {
+                eq = amp;
+            }
+            if (eq > start) {
+                parameters.put(uri.substring(start, eq), eq < amp ? uri.substring(eq + 1, amp) : "");
+            }
+            start = amp + 1;
+        }
+        return parameters;
+    }
+
+    /**
+     * Reads one line terminated by LF or CRLF, as ISO-8859-1.
+     *
+     * @param in the stream
+     * @return the line without its terminator, or null if the stream ended before any byte
+     * @throws IOException if an I/O error occurs or the line is too long
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int end = line.length();
+                if (end > 0 && line.charAt(end - 1) == '\r') {
+                    line.setLength(end - 1);
                 }
+                return line.toString();
             }
+            if (line.length() >= MAX_LINE) {
+                throw new BadRequestException(BadRequestException.HEADERS_TOO_LARGE, "Request line or header too long");
+            }
+            line.append((char) b);
         }
+        return line.length() == 0 ? null : line.toString();
+    }
 
-        StringBuilder builder = new StringBuilder();
-        if (length > 0) {
-            while (!(line = reader.readLine()).isEmpty()) {
-                if (line.contains("filename=")) {
-                    parameters.put("filename", line.split("filename=")[1]);
+    /**
+     * Reads a body sent with chunked transfer encoding, including the trailer.
+     *
+     * @param in the stream
+     * @param maxBody the largest body accepted, in bytes
+     * @return the body
+     * @throws BadRequestException if the encoding is malformed or the body is larger than the limit
+     * @throws IOException if an I/O error occurs
+     */
+    private static byte[] readChunked(InputStream in, int maxBody) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            String sizeLine = readLine(in);
+            if (sizeLine == null) {
+                throw new EOFException("Connection closed inside a chunked body");
+            }
+            int size;
+            try {
+                int semicolon = sizeLine.indexOf(';');
+                size = Integer.parseInt((semicolon < 0 ? sizeLine : sizeLine.substring(0, semicolon)).trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new BadRequestException(BadRequestException.BAD_REQUEST, "Malformed chunk size: " + sizeLine);
+            }
+            if (size == 0) {
+                String trailer;
+                while ((trailer = readLine(in)) != null && !trailer.isEmpty()) {
+                    // Trailer headers are not used
                 }
+                return body.toByteArray();
             }
-            // Read the content
-            char[] body = new char[length];
-            reader.read(body, 0, length);
-            requestBody = new String(body);
-            requestBody = requestBody.split("-")[0].trim();
+            if (size < 0 || body.size() + (long) size > maxBody) {
+                throw new BadRequestException(BadRequestException.CONTENT_TOO_LARGE, "Request body too large");
+            }
+            byte[] chunk = in.readNBytes(size);
+            if (chunk.length < size) {
+                throw new EOFException("Connection closed inside a chunked body");
+            }
+            body.write(chunk);
+            readLine(in);
+        }
+    }
+
+    /**
+     * Extracts the content of the first part of a multipart form body.
+     *
+     * @param body the whole body
+     * @param contentType the Content-Type header, carrying the boundary
+     * @param parameters receives the file name of the part as {@code filename}
+     * @return the content of the first part, or the whole body if it is not well formed
+     */
+    private static byte[] firstPart(byte[] body, String contentType, Map<String, String> parameters) {
+        int b = contentType.indexOf("boundary=");
+        if (b < 0) {
+            return body;
+        }
+        int boundaryEnd = contentType.indexOf(';', b);
+        String boundary = contentType.substring(b + "boundary=".length(),
+                boundaryEnd < 0 ? contentType.length() : boundaryEnd).trim();
+        if (boundary.startsWith("\"") && boundary.endsWith("\"") && boundary.length() > 1) {
+            boundary = boundary.substring(1, boundary.length() - 1);
+        }
+        byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        int start = indexOf(body, delimiter, 0);
+        if (start < 0) {
+            return body;
+        }
+        int headersEnd = indexOf(body, "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1), start);
+        if (headersEnd < 0) {
+            return body;
+        }
+        String partHeaders = new String(body, start, headersEnd - start, StandardCharsets.ISO_8859_1);
+        int filename = partHeaders.indexOf("filename=");
+        if (filename >= 0) {
+            int lineEnd = partHeaders.indexOf('\n', filename);
+            String value = partHeaders.substring(filename + "filename=".length(),
+                    lineEnd < 0 ? partHeaders.length() : lineEnd);
+            parameters.put("filename", value.endsWith("\r") ? value.substring(0, value.length() - 1) : value);
+        }
+        int contentStart = headersEnd + 4;
+        int end = indexOf(body, ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1), contentStart);
+        return Arrays.copyOfRange(body, contentStart, end < 0 ? body.length : end);
+    }
 
-            while (reader.ready()) {
-                line = reader.readLine();
+    /**
+     * Finds the first occurrence of a byte sequence.
+     *
+     * @param data the bytes to search
+     * @param pattern the sequence to find
+     * @param from the index to start at
+     * @return the index of the sequence, or -1 if it does not occur
+     */
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
             }
+            return i;
         }
-        return new RequestInfo(httpCommand, uri, segments, parameters, requestBody.getBytes());
+        return -1;
     }
 
     /**
@@ -101,6 +403,8 @@ public class RequestParser {
         private final String[] uriSegments;
         private final Map<String, String> parameters;
         private final byte[] content;
+        private final Map<String, String> headers;
+        private final String protocol;
 
         /**
          * Constructs a RequestInfo object with the specified parameters.
@@ -112,11 +416,61 @@ public class RequestParser {
          * @param content the content of the request
          */
         public RequestInfo(String httpCommand, String uri, String[] uriSegments, Map<String, String> parameters, byte[] content) {
+            this(httpCommand, uri, uriSegments, parameters, content, Collections.emptyMap(), "HTTP/1.1");
+        }
+
+        /**
+         * Constructs a RequestInfo object with headers and protocol version.
+         *
+         * @param httpCommand the HTTP command (e.g., GET, POST)
+         * @param uri the URI of the request
+         * @param uriSegments the segments of the URI
+         * @param parameters the query parameters of the request
+         * @param content the content of the request
+         * @param headers the request headers; lookups should ignore case
+         * @param protocol the protocol version, e.g. HTTP/1.1
+         */
+        public RequestInfo(String httpCommand, String uri, String[] uriSegments, Map<String, String> parameters, byte[] content,
+                           Map<String, String> headers, String protocol) {
             this.httpCommand = httpCommand;
             this.uri = uri;
             this.uriSegments = uriSegments;
             this.parameters = parameters;
             this.content = content;
+            this.headers = headers;
+            this.protocol = protocol;
+        }
+
+        /**
+         * Returns the headers of the request.
+         *
+         * @return the headers, looked up ignoring case
+         */
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * Returns the protocol version of the request.
+         *
+         * @return the protocol version, e.g. HTTP/1.1
+         */
+        public String getProtocol() {
+            return protocol;
+        }
+
+        /**
+         * Checks whether the client wants to keep the connection open after this request: the default for
+         * HTTP/1.1 unless it sent {@code Connection: close}, and only on {@code Connection: keep-alive} for HTTP/1.0.
+         *
+         * @return true if the connection may be reused
+         */
+        public boolean isKeepAlive() {
+            String connection = headers.get("Connection");
+            if ("HTTP/1.1".equalsIgnoreCase(protocol)) {
+                return connection == null || !connection.equalsIgnoreCase("close");
+            }
+            return connection != null && connection.equalsIgnoreCase("keep-alive");
         }
 
         /**
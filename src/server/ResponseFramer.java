@@ -0,0 +1,439 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The ResponseFramer class is the output stream a servlet writes its response to on a persistent connection.
+ * Servlets write a status line, headers and a body, but their Content-Length is often missing or counts
+ * characters instead of bytes, and the client of a reused connection needs exact framing to find where one
+ * response ends. The framer buffers the response and rewrites its headers: the servlet's Content-Length,
+ * Transfer-Encoding and Connection headers are replaced by a correct Content-Length and the connection headers
+ * of the server. A body that outgrows the buffer is streamed with chunked transfer encoding instead, or, since
+ * HTTP/1.0 clients cannot decode chunks, sent unframed to them and ended by closing the connection.
+ * <p>
+ * An event stream ({@code Content-Type: text/event-stream}) is sent with chunked transfer encoding from the start,
+ * and every {@link #flush()} of its servlet sends the events written so far, so they reach the client at once.
+ * On servers that support it, a servlet can {@link #detach()} the response and go on sending it after returning.
+ */
+public class ResponseFramer extends OutputStream {
+    // Bodies up to this size are sent with a Content-Length; larger ones are streamed in chunks of this size
+    private static final int CHUNK_SIZE = 64 << 10;
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final OutputStream out;
+    private final String connectionHeaders;
+    private final boolean chunkedAllowed;
+    private final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    private boolean keepAlive;
+    private int bodyStart = -1;
+    private boolean chunked = false;
+    // The body is written as is and ends when the connection closes
+    private boolean raw = false;
+    private boolean bodyless = false;
+    private boolean streaming = false;
+    private boolean finished = false;
+    private boolean detached = false;
+
+    /**
+     * Creates a framer for one response to an HTTP/1.1 request.
+     *
+     * @param out the stream of the connection
+     * @param keepAlive whether the server keeps the connection open after this response
+     * @param timeoutSeconds the idle timeout announced to the client of a kept connection
+     * @param maxRequests the number of further requests the client may send on the connection
+     */
+    public ResponseFramer(OutputStream out, boolean keepAlive, int timeoutSeconds, int maxRequests) {
+        this(out, keepAlive, timeoutSeconds, maxRequests, "HTTP/1.1");
+    }
+
+    /**
+     * Creates a framer for one response.
+     *
+     * @param out the stream of the connection
+     * @param keepAlive whether the server keeps the connection open after this response
+     * @param timeoutSeconds the idle timeout announced to the client of a kept connection
+     * @param maxRequests the number of further requests the client may send on the connection
+     * @param protocol the protocol version of the request, which decides whether chunked encoding may be used
+     */
+    public ResponseFramer(OutputStream out, boolean keepAlive, int timeoutSeconds, int maxRequests,
+            String protocol) {
+        this.out = out;
+        this.chunkedAllowed = "HTTP/1.1".equalsIgnoreCase(protocol);
+        this.keepAlive = keepAlive;
+        this.connectionHeaders = keepAlive
+                ? "Connection: keep-alive\r\nKeep-Alive: timeout=" + timeoutSeconds + ", max=" + maxRequests + "\r\n"
+                : "Connection: close\r\n";
+    }
+
+    /**
+     * Buffers one byte of the response.
+     *
+     * @param b the byte
+     * @throws IOException if a chunk cannot be sent
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    /**
+     * Buffers bytes of the response, sending a chunk whenever a full one has accumulated.
+     *
+     * @param b the bytes
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @throws IOException if a chunk cannot be sent
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Response already sent");
+        }
+        buf.write(b, off, len);
+        if (bodyStart < 0) {
+            bodyStart = headerEnd(buf.toByteArray());
+        }
+        if (bodyStart >= 0 && !bodyless && buf.size() - (isStreaming() ? 0 : bodyStart) >= CHUNK_SIZE) {
+            if (!isStreaming()) {
+                startStreaming();
+            }
+            sendBody();
+        }
+    }
+
+    /**
+     * Sends the body written so far as a chunk if the response is an event stream. Otherwise does nothing: the
+     * response is only sent once it is complete or a whole chunk is ready, so that it can be framed, and servlets
+     * that flush after writing are unaffected.
+     *
+     * @throws IOException if the chunk cannot be sent
+     */
+    @Override
+    public void flush() throws IOException {
+        if (!streaming || finished) {
+            return;
+        }
+        if (!isStreaming()) {
+            startStreaming();
+        }
+        if (buf.size() > 0) {
+            sendBody();
+        }
+        out.flush();
+    }
+
+    /**
+     * Does nothing: the connection belongs to the server, which may reuse it after the response.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Hands the response over to the servlet, which keeps sending it after its handle method returns and ends it
+     * by closing the returned stream; the server then leaves the response open. Meant for event streams, whose
+     * bytes are sent as soon as they are written.
+     *
+     * @return the stream, or null if the server needs the servlet's thread to send the response
+     */
+    public ResponseStream detach() {
+        if (detached || finished || !(out instanceof Target target)) {
+            return null;
+        }
+        detached = true;
+        return new Detached(target);
+    }
+
+    /**
+     * Checks whether the servlet took the response over with {@link #detach()}.
+     *
+     * @return true if the servlet ends the response itself
+     */
+    public boolean isDetached() {
+        return detached;
+    }
+
+    /**
+     * Sends the buffered response with its final framing.
+     *
+     * @return true if the connection can be kept open, false if the response asked for it to be closed
+     * @throws IOException if the response cannot be sent
+     */
+    public boolean finish() throws IOException {
+        if (finished) {
+            return keepAlive;
+        }
+        finished = true;
+        if (isStreaming()) {
+            if (buf.size() > 0) {
+                sendBody();
+            }
+            if (chunked) {
+                out.write('0');
+                out.write(CRLF);
+                out.write(CRLF);
+            }
+            return keepAlive;
+        }
+        byte[] all = buf.toByteArray();
+        if (all.length == 0) {
+            // The servlet did not answer
+            all = "HTTP/1.1 500 Internal Server Error\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        }
+        int start = bodyStart >= 0 ? bodyStart : all.length;
+        int length = all.length - start;
+        if (bodyless) {
+            writeHead(all, "");
+        } else {
+            writeHead(all, "Content-Length: " + length + "\r\n");
+            out.write(all, start, length);
+        }
+        return keepAlive;
+    }
+
+    /**
+     * Writes the status line and headers the servlet wrote, with the framing and connection headers replaced.
+     *
+     * @param response the buffered response, starting with the status line
+     * @param framing the framing header to add
+     * @throws IOException if the headers cannot be sent
+     */
+    private void writeHead(byte[] response, String framing) throws IOException {
+        int end = bodyStart >= 0 ? bodyStart : response.length;
+        String[] lines = new String(response, 0, end, StandardCharsets.ISO_8859_1).split("\r?\n");
+        StringBuilder head = new StringBuilder();
+        head.append(lines[0].trim()).append("\r\n");
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            if (name.equalsIgnoreCase("Connection")) {
+                if (line.substring(colon + 1).trim().equalsIgnoreCase("close")) {
+                    keepAlive = false;
+                }
+                continue;
+            }
+            if (name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding")
+                    || name.equalsIgnoreCase("Keep-Alive")) {
+                continue;
+            }
+            head.append(line).append("\r\n");
+        }
+        head.append(framing);
+        head.append(keepAlive ? connectionHeaders : "Connection: close\r\n");
+        head.append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Checks whether the headers have been sent and the body is being streamed.
+     *
+     * @return true once the body is sent chunked or unframed
+     */
+    private boolean isStreaming() {
+        return chunked || raw;
+    }
+
+    /**
+     * Sends the headers of a body that is streamed, keeping the body bytes written so far in the buffer.
+     * HTTP/1.1 clients get chunked encoding; other clients get the body unframed, ended by closing the connection.
+     *
+     * @throws IOException if the headers cannot be sent
+     */
+    private void startStreaming() throws IOException {
+        byte[] all = buf.toByteArray();
+        if (chunkedAllowed) {
+            writeHead(all, "Transfer-Encoding: chunked\r\n");
+            chunked = true;
+        } else {
+            keepAlive = false;
+            writeHead(all, "");
+            raw = true;
+        }
+        buf.reset();
+        buf.write(all, bodyStart, all.length - bodyStart);
+    }
+
+    /**
+     * Sends the buffered body bytes in the framing chosen by {@link #startStreaming()}.
+     *
+     * @throws IOException if the bytes cannot be sent
+     */
+    private void sendBody() throws IOException {
+        if (chunked) {
+            writeChunk(buf.toByteArray());
+        } else {
+            buf.writeTo(out);
+        }
+        buf.reset();
+    }
+
+    /**
+     * Sends one chunk of the body.
+     *
+     * @param chunk the bytes of the chunk
+     * @throws IOException if the chunk cannot be sent
+     */
+    private void writeChunk(byte[] chunk) throws IOException {
+        out.write(Integer.toHexString(chunk.length).getBytes(StandardCharsets.ISO_8859_1));
+        out.write(CRLF);
+        out.write(chunk);
+        out.write(CRLF);
+    }
+
+    /**
+     * Finds the end of the headers and notes whether the status forbids a body and whether the body is an event
+     * stream.
+     *
+     * @param response the bytes written so far
+     * @return the index just after the blank line ending the headers, or -1 if it has not been written yet
+     */
+    private int headerEnd(byte[] response) {
+        for (int i = 0; i + 1 < response.length; i++) {
+            int end = -1;
+            if (response[i] == '\n' && response[i + 1] == '\n') {
+                end = i + 2;
+            } else if (i + 3 < response.length && response[i] == '\r' && response[i + 1] == '\n'
+                    && response[i + 2] == '\r' && response[i + 3] == '\n') {
+                end = i + 4;
+            }
+            if (end >= 0) {
+                String head = new String(response, 0, end, StandardCharsets.ISO_8859_1);
+                String[] status = head.substring(0, Math.min(end, 32)).split(" ");
+                if (status.length > 1) {
+                    String code = status[1].trim();
+                    bodyless = code.startsWith("1") || code.equals("204") || code.equals("304");
+                }
+                streaming = !bodyless && isEventStream(head);
+                return end;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether the headers declare an event stream, reading the Content-Type header the way
+     * {@link #writeHead} reads header names: case-insensitive, with any spaces around the name and value.
+     *
+     * @param head the status line and headers
+     * @return true if the media type of the Content-Type header is text/event-stream
+     */
+    private static boolean isEventStream(String head) {
+        String[] lines = head.split("\r?\n");
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            int colon = line.indexOf(':');
+            if (colon <= 0 || !line.substring(0, colon).trim().equalsIgnoreCase("Content-Type")) {
+                continue;
+            }
+            String value = line.substring(colon + 1);
+            int semicolon = value.indexOf(';');
+            String mediaType = (semicolon < 0 ? value : value.substring(0, semicolon)).trim();
+            return mediaType.equalsIgnoreCase("text/event-stream");
+        }
+        return false;
+    }
+
+    /**
+     * The connection side a server passes as the framer's stream when it can write the response without the
+     * servlet's thread, so the response can be detached.
+     */
+    interface Target {
+
+        /**
+         * Checks whether many queued bytes have not been written to the client yet.
+         *
+         * @return true if the client has fallen behind
+         */
+        boolean isBacklogged();
+
+        /**
+         * Checks whether the connection is still open.
+         *
+         * @return true if the connection has not been closed
+         */
+        boolean isOpen();
+
+        /**
+         * Queues the rest of a detached response and tells the server that it is complete.
+         *
+         * @param keepAlive whether the connection can be kept open after the response
+         */
+        void end(boolean keepAlive);
+    }
+
+    /**
+     * The stream of a detached response. Calls are serialized on the framer.
+     */
+    private final class Detached implements ResponseStream {
+        private final Target target;
+
+        Detached(Target target) {
+            this.target = target;
+        }
+
+        /**
+         * Writes the bytes and flushes them, so an event stream sends them at once.
+         *
+         * @param bytes the bytes
+         * @throws IOException if the response has ended or the connection has been closed
+         */
+        @Override
+        public void send(byte[] bytes) throws IOException {
+            synchronized (ResponseFramer.this) {
+                if (!isOpen()) {
+                    throw new IOException("Response closed");
+                }
+                write(bytes, 0, bytes.length);
+                flush();
+            }
+        }
+
+        /**
+         * Checks whether the connection has many unsent bytes.
+         *
+         * @return true if the client has fallen behind
+         */
+        @Override
+        public boolean isBacklogged() {
+            return target.isBacklogged();
+        }
+
+        /**
+         * Checks whether the response has not ended and its connection is open.
+         *
+         * @return true if bytes can still be sent
+         */
+        @Override
+        public boolean isOpen() {
+            synchronized (ResponseFramer.this) {
+                return !finished && target.isOpen();
+            }
+        }
+
+        /**
+         * Sends the end of the response and hands the connection back to the server.
+         */
+        @Override
+        public void close() {
+            boolean keepAlive;
+            synchronized (ResponseFramer.this) {
+                if (finished) {
+                    return;
+                }
+                try {
+                    keepAlive = finish();
+                } catch (IOException e) {
+                    keepAlive = false;
+                }
+            }
+            target.end(keepAlive);
+        }
+    }
+}
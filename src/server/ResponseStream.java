@@ -0,0 +1,39 @@
+package server;
+
+import java.io.IOException;
+
+/**
+ * The ResponseStream interface is the open end of a streamed response that a servlet keeps writing after its
+ * handle method has returned, so a long-lived stream such as an event stream holds no thread while it waits for
+ * something to send. Servers that write their connections without a thread per connection offer one through
+ * {@link ResponseFramer#detach()}. Its methods may be called from any thread, but only by one thread at a time.
+ */
+public interface ResponseStream {
+
+    /**
+     * Sends bytes of the response without waiting for the client to read them.
+     *
+     * @param bytes the bytes
+     * @throws IOException if the connection has been closed
+     */
+    void send(byte[] bytes) throws IOException;
+
+    /**
+     * Checks whether the client has fallen behind, so the caller can hold back or coalesce what it sends next.
+     *
+     * @return true if many bytes sent earlier have not been written to the client yet
+     */
+    boolean isBacklogged();
+
+    /**
+     * Checks whether the response can still be sent.
+     *
+     * @return false once the connection has been closed or the response ended
+     */
+    boolean isOpen();
+
+    /**
+     * Ends the response, after which the connection goes on with its next request or is closed.
+     */
+    void close();
+}
@@ -0,0 +1,467 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import server.RequestParser.RequestInfo;
+import servlets.Servlet;
+
+/**
+ * The ServletRouter class maps an HTTP command and a URI to the servlet registered for the longest matching
+ * URI prefix. It is shared by the HTTP server implementations, so they all route requests the same way.
+ * <p>
+ * Routes are kept in one immutable radix trie per HTTP command, so a lookup walks the URI once instead of testing
+ * every registered prefix. Adding or removing a servlet builds a new trie and publishes it, so lookups never lock
+ * and never see a half-updated table. A route may contain path parameters such as {@code /graph/{id}/publish}:
+ * {@code {id}} matches one path segment, and its value is added to the parameters of the request.
+ */
+public class ServletRouter {
+    private static final byte[] NOT_FOUND = ("HTTP/1.1 404 Not Found\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "Content-Length: 9\r\n" +
+            "\r\n" +
+            "Not Found").getBytes(StandardCharsets.UTF_8);
+
+    // The registered routes of every command; only touched while holding the router's lock
+    private final Map<String, Servlet> getRoutes = new TreeMap<>();
+    private final Map<String, Servlet> postRoutes = new TreeMap<>();
+    private final Map<String, Servlet> deleteRoutes = new TreeMap<>();
+    // The tries built from the routes above, replaced as a whole on every change
+    private volatile Node get = Node.EMPTY;
+    private volatile Node post = Node.EMPTY;
+    private volatile Node delete = Node.EMPTY;
+
+    /**
+     * Adds a servlet to handle requests for the specified HTTP command and URI prefix.
+     *
+     * @param httpCommand the HTTP command (GET, POST, DELETE)
+     * @param uri the URI prefix for which the servlet will handle requests, possibly with {name} parameters
+     * @param s the servlet to handle requests
+     * @throws IllegalArgumentException if the HTTP command is not supported or the URI has an unclosed parameter
+     */
+    public synchronized void add(String httpCommand, String uri, Servlet s) {
+        Map<String, Servlet> routes = getRoutes(httpCommand);
+        parse(uri);
+        routes.put(uri, s);
+        publish(httpCommand, routes);
+    }
+
+    /**
+     * Removes the servlet for the specified HTTP command and URI prefix.
+     *
+     * @param httpCommand the HTTP command (GET, POST, DELETE)
+     * @param uri the URI prefix for which the servlet will be removed
+     * @throws IllegalArgumentException if the HTTP command is not supported
+     */
+    public synchronized void remove(String httpCommand, String uri) {
+        Map<String, Servlet> routes = getRoutes(httpCommand);
+        if (routes.remove(uri) != null) {
+            publish(httpCommand, routes);
+        }
+    }
+
+    /**
+     * Finds the servlet registered for the longest prefix of the URI.
+     *
+     * @param httpCommand the HTTP command of the request
+     * @param uri the URI of the request
+     * @return the servlet, or null if the command is not supported or no prefix matches
+     */
+    public Servlet find(String httpCommand, String uri) {
+        Route route = route(httpCommand, uri);
+        return route == null ? null : route.getServlet();
+    }
+
+    /**
+     * Finds the route registered for the longest prefix of the URI, with the values of its path parameters.
+     * A literal character of a route is preferred over a parameter at the same position.
+     *
+     * @param httpCommand the HTTP command of the request
+     * @param uri the URI of the request
+     * @return the route, or null if the command is not supported or no prefix matches
+     */
+    public Route route(String httpCommand, String uri) {
+        Node root = getTrie(httpCommand);
+        if (root == null || root == Node.EMPTY) {
+            return null;
+        }
+        // Parameters never extend into the query string
+        int query = uri.indexOf('?');
+        int pathEnd = query < 0 ? uri.length() : query;
+        Match best = new Match();
+        match(root, uri, 0, pathEnd, new int[2 * root.maxParams], 0, best);
+        if (best.node == null) {
+            return null;
+        }
+        Map<String, String> parameters;
+        String[] names = best.node.paramNames;
+        if (names.length == 0) {
+            parameters = Collections.emptyMap();
+        } else {
+            parameters = new HashMap<>();
+            for (int i = 0; i < names.length; i++) {
+                parameters.put(names[i], uri.substring(best.bounds[2 * i], best.bounds[2 * i + 1]));
+            }
+        }
+        return new Route(best.node.servlet, best.node.route, parameters);
+    }
+
+    /**
+     * Runs the servlet routed for a request, adding the path parameters to the request's parameters, or answers
+     * 404 if no route matches.
+     *
+     * @param ri the request
+     * @param toClient the output stream to send the response to the client
+     * @throws IOException if an I/O error occurs
+     */
+    public void dispatch(RequestInfo ri, OutputStream toClient) throws IOException {
+        Route route = route(ri.getHttpCommand(), ri.getUri());
+        if (route == null) {
+            sendNotFound(toClient);
+            return;
+        }
+        ri.getParameters().putAll(route.getParameters());
+        route.getServlet().handle(ri, toClient);
+    }
+
+    /**
+     * Writes the response to a request that no servlet handles.
+     *
+     * @param toClient the output stream to send the response to the client
+     * @throws IOException if an I/O error occurs
+     */
+    public static void sendNotFound(OutputStream toClient) throws IOException {
+        toClient.write(NOT_FOUND);
+        toClient.flush();
+    }
+
+    /**
+     * Returns the registered routes for the specified HTTP command.
+     *
+     * @param httpCommand the HTTP command (GET, POST, DELETE)
+     * @return the routes for the specified HTTP command
+     * @throws IllegalArgumentException if the HTTP command is not supported
+     */
+    private Map<String, Servlet> getRoutes(String httpCommand) {
+        return switch (httpCommand.toLowerCase()) {
+            case "get" -> getRoutes;
+            case "post" -> postRoutes;
+            case "delete" -> deleteRoutes;
+            default -> throw new IllegalArgumentException("Unsupported HTTP command: " + httpCommand);
+        };
+    }
+
+    /**
+     * Returns the current trie for the specified HTTP command.
+     *
+     * @param httpCommand the HTTP command of the request
+     * @return the trie, or null if the command is not supported
+     */
+    private Node getTrie(String httpCommand) {
+        if (httpCommand.equalsIgnoreCase("get")) {
+            return get;
+        } else if (httpCommand.equalsIgnoreCase("post")) {
+            return post;
+        } else if (httpCommand.equalsIgnoreCase("delete")) {
+            return delete;
+        }
+        return null;
+    }
+
+    /**
+     * Builds the trie of a command's routes and makes it visible to lookups.
+     *
+     * @param httpCommand the HTTP command
+     * @param routes the routes of the command
+     */
+    private void publish(String httpCommand, Map<String, Servlet> routes) {
+        Node trie = build(routes);
+        switch (httpCommand.toLowerCase()) {
+            case "get" -> get = trie;
+            case "post" -> post = trie;
+            default -> delete = trie;
+        }
+    }
+
+    /**
+     * Walks the trie along the URI, remembering the deepest node that ends a route.
+     *
+     * @param node the node whose label starts at pos
+     * @param uri the URI of the request
+     * @param pos the index in the URI where the node's label starts
+     * @param pathEnd the index where the query string starts, or the URI length
+     * @param bounds the start and end index of every parameter value captured so far
+     * @param params the number of parameter values captured so far
+     * @param best the best match found so far, updated in place
+     */
+    private static void match(Node node, String uri, int pos, int pathEnd, int[] bounds, int params, Match best) {
+        if (node.param) {
+            int end = pos;
+            while (end < pathEnd && uri.charAt(end) != '/') {
+                end++;
+            }
+            if (end == pos) {
+                // A parameter matches a non-empty segment
+                return;
+            }
+            bounds[2 * params] = pos;
+            bounds[2 * params + 1] = end;
+            params++;
+            pos = end;
+        } else {
+            String label = node.label;
+            if (!uri.startsWith(label, pos)) {
+                return;
+            }
+            pos += label.length();
+        }
+        if (node.servlet != null && pos > best.length) {
+            best.node = node;
+            best.length = pos;
+            best.bounds = bounds.clone();
+        }
+        if (pos < uri.length()) {
+            int i = indexOf(node.firstChars, uri.charAt(pos));
+            if (i >= 0) {
+                match(node.children[i], uri, pos, pathEnd, bounds, params, best);
+            }
+        }
+        // A parameter is only tried where the literal branch found nothing longer
+        if (node.paramChild != null && pos < pathEnd && best.length <= pos) {
+            match(node.paramChild, uri, pos, pathEnd, bounds, params, best);
+        }
+    }
+
+    /**
+     * Finds a character in a sorted array.
+     *
+     * @param chars the sorted characters
+     * @param c the character to find
+     * @return its index, or -1 if it is missing
+     */
+    private static int indexOf(char[] chars, char c) {
+        int lo = 0;
+        int hi = chars.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (chars[mid] < c) {
+                lo = mid + 1;
+            } else if (chars[mid] > c) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Splits a route into literal parts and parameter names: even indexes hold literals (possibly empty), odd
+     * indexes hold the names of the parameters between them.
+     *
+     * @param route the route
+     * @return the parts of the route
+     * @throws IllegalArgumentException if a parameter is not closed or has no name
+     */
+    private static List<String> parse(String route) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int open;
+        while ((open = route.indexOf('{', start)) >= 0) {
+            int close = route.indexOf('}', open);
+            if (close < 0 || close == open + 1) {
+                throw new IllegalArgumentException("Malformed path parameter in route: " + route);
+            }
+            parts.add(route.substring(start, open));
+            parts.add(route.substring(open + 1, close));
+            start = close + 1;
+        }
+        parts.add(route.substring(start));
+        return parts;
+    }
+
+    /**
+     * Builds the immutable trie of a set of routes.
+     *
+     * @param routes the routes and their servlets
+     * @return the root of the trie
+     */
+    private static Node build(Map<String, Servlet> routes) {
+        if (routes.isEmpty()) {
+            return Node.EMPTY;
+        }
+        Builder root = new Builder(false);
+        for (Map.Entry<String, Servlet> entry : routes.entrySet()) {
+            List<String> parts = parse(entry.getKey());
+            Builder b = root;
+            String[] names = new String[parts.size() / 2];
+            for (int i = 0; i < parts.size(); i++) {
+                String part = parts.get(i);
+                if (i % 2 == 1) {
+                    names[i / 2] = part;
+                    if (b.paramChild == null) {
+                        b.paramChild = new Builder(true);
+                    }
+                    b = b.paramChild;
+                    continue;
+                }
+                for (int k = 0; k < part.length(); k++) {
+                    b = b.children.computeIfAbsent(part.charAt(k), c -> new Builder(false));
+                }
+            }
+            b.servlet = entry.getValue();
+            b.route = entry.getKey();
+            b.paramNames = names;
+        }
+        return root.freeze("", maxParams(routes));
+    }
+
+    /**
+     * Returns the largest number of parameters of any route.
+     *
+     * @param routes the routes
+     * @return the maximum parameter count
+     */
+    private static int maxParams(Map<String, Servlet> routes) {
+        int max = 0;
+        for (String route : routes.keySet()) {
+            max = Math.max(max, parse(route).size() / 2);
+        }
+        return max;
+    }
+
+    /**
+     * A route found for a request: the servlet, the route it was registered under and the path parameters.
+     */
+    public static final class Route {
+        private final Servlet servlet;
+        private final String pattern;
+        private final Map<String, String> parameters;
+
+        Route(Servlet servlet, String pattern, Map<String, String> parameters) {
+            this.servlet = servlet;
+            this.pattern = pattern;
+            this.parameters = parameters;
+        }
+
+        /**
+         * Returns the servlet of the route.
+         *
+         * @return the servlet
+         */
+        public Servlet getServlet() {
+            return servlet;
+        }
+
+        /**
+         * Returns the URI prefix the servlet was registered under.
+         *
+         * @return the route as registered
+         */
+        public String getPattern() {
+            return pattern;
+        }
+
+        /**
+         * Returns the values of the route's path parameters.
+         *
+         * @return the parameter values by name, empty if the route has none
+         */
+        public Map<String, String> getParameters() {
+            return parameters;
+        }
+    }
+
+    /**
+     * The best match of a lookup so far.
+     */
+    private static final class Match {
+        Node node;
+        int length = -1;
+        int[] bounds;
+    }
+
+    /**
+     * A node of the immutable trie. A literal node matches its label, which is only empty at a root with several
+     * children; a parameter node matches one non-empty path segment. Literal children are found by their first
+     * character.
+     */
+    private static final class Node {
+        static final Node EMPTY = new Node(false, "", new char[0], new Node[0], null, null, null, new String[0], 0);
+
+        final boolean param;
+        final String label;
+        final char[] firstChars;
+        final Node[] children;
+        final Node paramChild;
+        final Servlet servlet;
+        final String route;
+        final String[] paramNames;
+        final int maxParams;
+
+        Node(boolean param, String label, char[] firstChars, Node[] children, Node paramChild, Servlet servlet,
+                String route, String[] paramNames, int maxParams) {
+            this.param = param;
+            this.label = label;
+            this.firstChars = firstChars;
+            this.children = children;
+            this.paramChild = paramChild;
+            this.servlet = servlet;
+            this.route = route;
+            this.paramNames = paramNames;
+            this.maxParams = maxParams;
+        }
+    }
+
+    /**
+     * A mutable node with one character per edge, used while building a trie and compressed by {@link #freeze}.
+     */
+    private static final class Builder {
+        final boolean param;
+        final TreeMap<Character, Builder> children = new TreeMap<>();
+        Builder paramChild;
+        Servlet servlet;
+        String route;
+        String[] paramNames = new String[0];
+
+        Builder(boolean param) {
+            this.param = param;
+        }
+
+        /**
+         * Compresses this node and its descendants: chains of literal nodes with a single child and no servlet
+         * are merged into one label.
+         *
+         * @param label the label of the node, up to and including the character of the edge leading to it
+         * @param maxParams the largest number of parameters of any route, recorded on the root
+         * @return the immutable node
+         */
+        Node freeze(String label, int maxParams) {
+            Builder b = this;
+            StringBuilder merged = new StringBuilder(label);
+            while (!b.param && b.servlet == null && b.paramChild == null && b.children.size() == 1) {
+                Map.Entry<Character, Builder> only = b.children.firstEntry();
+                merged.append(only.getKey());
+                b = only.getValue();
+            }
+            char[] firstChars = new char[b.children.size()];
+            Node[] nodes = new Node[b.children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Builder> child : b.children.entrySet()) {
+                firstChars[i] = child.getKey();
+                nodes[i] = child.getValue().freeze(String.valueOf(child.getKey()), 0);
+                i++;
+            }
+            Node paramChild = b.paramChild == null ? null : b.paramChild.freeze("", 0);
+            return new Node(param, param ? "" : merged.toString(), firstChars, nodes, paramChild, b.servlet, b.route,
+                    b.paramNames, maxParams);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package servlets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import server.RequestParser.RequestInfo;
+
+/**
+ * The CheckpointSaver class implements the Servlet interface and writes a checkpoint of the loaded graph on demand.
+ */
+public class CheckpointSaver implements Servlet {
+	private final ConfLoader loader;
+
+	/**
+	 * Constructs a CheckpointSaver for the graph loaded by the given ConfLoader.
+	 *
+	 * @param loader the loader holding the graph and its checkpoint file
+	 */
+	public CheckpointSaver(ConfLoader loader) {
+		this.loader = loader;
+	}
+
+	/**
+	 * Handles the HTTP request by writing a checkpoint and reporting the outcome as plain text.
+	 *
+	 * @param ri the request information
+	 * @param toClient the output stream to send the response to the client
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+		String status;
+		String message;
+		try {
+			if (loader.checkpoint()) {
+				status = "200 OK";
+				message = "Checkpoint written";
+			} else {
+				status = "409 Conflict";
+				message = "No graph loaded or checkpoints disabled";
+			}
+		} catch (IOException e) {
+			status = "500 Internal Server Error";
+			message = "Checkpoint failed: " + e.getMessage();
+		}
+		byte[] body = message.getBytes(StandardCharsets.UTF_8);
+		String header = "HTTP/1.1 " + status + "\r\n" +
+				"Content-Type: text/plain; charset=UTF-8\r\n" +
+				"Content-Length: " + body.length + "\r\n" +
+				"\r\n";
+		toClient.write(header.getBytes(StandardCharsets.UTF_8));
+		toClient.write(body);
+		toClient.flush();
+	}
+
+	/**
+	 * Closes the servlet and releases any resources held by it.
+	 */
+	@Override
+	public void close() throws IOException {
+	}
+}
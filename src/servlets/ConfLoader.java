@@ -2,11 +2,17 @@ package servlets;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import configs.GenericConfig;
 import configs.Graph;
 import configs.PlusAgent;
-import graph.TopicManagerSingleton;
+import graph.GraphContext;
+import graph.TopicManagerSingleton.TopicManager;
 import server.RequestParser.RequestInfo;
 import views.HtmlGraphWriter;
 
@@ -15,6 +21,118 @@ import views.HtmlGraphWriter;
  */
 public class ConfLoader implements Servlet {
 
+	// Where every upload is stored, so the last one can be loaded again on restart
+	private static final String CONFIG_FILE = "config_files/graph_config.txt";
+
+	// The graph the uploaded configurations are loaded into
+	private final GraphContext context;
+	// The configuration loaded by the previous upload, closed when a new one replaces it
+	private volatile GenericConfig current;
+	// The checkpoint file of the loaded graph, or null when checkpoints are off
+	private Path checkpointFile;
+	private ScheduledExecutorService checkpointer;
+
+	/**
+	 * Constructs a ConfLoader that loads configurations into the default graph context.
+	 */
+	public ConfLoader() {
+		this(GraphContext.getDefault());
+	}
+
+	/**
+	 * Constructs a ConfLoader that loads configurations into the given graph context.
+	 * Each upload replaces the graph of that context only.
+	 *
+	 * @param context the graph context
+	 */
+	public ConfLoader(GraphContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Turns on checkpoints of the loaded graph: {@link #restore()} reads the file, {@link #checkpoint()} and
+	 * {@link #close()} write it, and so does a background task every {@code periodMillis} milliseconds.
+	 *
+	 * @param file the checkpoint file
+	 * @param periodMillis the time between periodic checkpoints, or 0 for on-demand checkpoints only
+	 */
+	public synchronized void enableCheckpoints(Path file, long periodMillis) {
+		this.checkpointFile = file;
+		if (checkpointer != null) {
+			checkpointer.shutdownNow();
+			checkpointer = null;
+		}
+		if (periodMillis > 0) {
+			checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "checkpoint");
+				t.setDaemon(true);
+				return t;
+			});
+			checkpointer.scheduleAtFixedRate(() -> {
+				try {
+					checkpoint();
+				} catch (IOException e) {
+					System.err.println("Checkpoint failed: " + e.getMessage());
+				}
+			}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Loads the last uploaded configuration and, if checkpoints are on and one exists, restores its state from
+	 * the checkpoint, so the graph is back where it was before a restart. Meant to be called before the server
+	 * starts accepting requests. The configuration stays loaded, with fresh state, when the checkpoint fails.
+	 *
+	 * @return true if a checkpoint was restored
+	 * @throws IOException if the checkpoint cannot be read or is corrupt
+	 */
+	public synchronized boolean restore() throws IOException {
+		if (!new File(CONFIG_FILE).exists()) {
+			return false;
+		}
+		load(CONFIG_FILE);
+		if (checkpointFile == null || !Files.exists(checkpointFile)) {
+			return false;
+		}
+		return current.restore(checkpointFile);
+	}
+
+	/**
+	 * Writes a checkpoint of the loaded graph now.
+	 *
+	 * @return true if a checkpoint was written, false if checkpoints are off or no graph is loaded
+	 * @throws IOException if the checkpoint cannot be written
+	 */
+	public synchronized boolean checkpoint() throws IOException {
+		GenericConfig conf = current;
+		if (checkpointFile == null || conf == null) {
+			return false;
+		}
+		conf.checkpoint(checkpointFile);
+		return true;
+	}
+
+	/**
+	 * Replaces the loaded graph with the configuration in the given file.
+	 *
+	 * @param filePath the configuration file
+	 * @return the topics of the new graph
+	 */
+	private synchronized TopicManager load(String filePath) {
+		if (current != null) {
+			current.close();
+		}
+		TopicManager tm = context.getTopicManager();
+		tm.clear();
+		GenericConfig conf = new GenericConfig();
+		conf.setContext(context);
+		conf.setConfFile(filePath);
+
+		conf.create();
+		current = conf;
+		return tm;
+	}
+
 	/**
 	 * Handles the HTTP request by processing the configuration file and generating an HTML response.
 	 *
@@ -27,7 +145,7 @@ public class ConfLoader implements Servlet {
 		byte[] content = ri.getContent();
 
 		// Writing the content to a new file
-		String filePath = "config_files/graph_config.txt";
+		String filePath = CONFIG_FILE;
 		try {
 			File outputFile = new File(filePath);
 			try (FileOutputStream fos = new FileOutputStream(outputFile)) {
@@ -38,14 +156,10 @@ public class ConfLoader implements Servlet {
 		}
 
 		// Creating the topics for the new configuration
-		TopicManagerSingleton.get().getTopics().clear();
-		GenericConfig conf = new GenericConfig();
-		conf.setConfFile(filePath);
-
-		conf.create();
+		TopicManager tm = load(filePath);
 
 		Graph graph = new Graph();
-		graph.createFromTopics();
+		graph.createFromTopics(tm);
 
 		// Check for cycles
 		if (graph.hasCycles()) {
@@ -55,18 +169,21 @@ public class ConfLoader implements Servlet {
 
 		try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
 			int lineCount = 0;
-			while (reader.readLine() != null) {
-				lineCount++;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!GenericConfig.isDirective(line)) {
+					lineCount++;
+				}
 			}
 
-			if (graph.size() != (TopicManagerSingleton.get().getTopics().size() + lineCount / 3)) {
+			if (graph.size() != (tm.getTopics().size() + lineCount / 3)) {
 				sendErrorResponse(toClient, "ERROR!! bad config file.");
 				return;
 			}
 		}
 
 		// Showing the graph as a POST response to the client
-		String html = HtmlGraphWriter.getGraphHTML(graph);
+		String html = HtmlGraphWriter.getGraphHTML(graph, tm);
 		String htmlResponse = "HTTP/1.1 200 OK\n" + "Content-Type: text/html\n" + "Content-Length: " + html.length() + "\n\n" + html;
 		toClient.write(htmlResponse.getBytes(StandardCharsets.UTF_8));
 		toClient.flush();
@@ -103,10 +220,16 @@ public class ConfLoader implements Servlet {
 	}
 
 	/**
-	 * Closes the servlet and releases any resources held by it.
+	 * Stops the periodic checkpoints and writes a final checkpoint of the loaded graph.
+	 *
+	 * @throws IOException if the final checkpoint cannot be written
 	 */
 	@Override
-	public void close() throws IOException {
-		// TODO Auto-generated method stub
+	public synchronized void close() throws IOException {
+		if (checkpointer != null) {
+			checkpointer.shutdownNow();
+			checkpointer = null;
+		}
+		checkpoint();
 	}
 }
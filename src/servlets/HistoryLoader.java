@@ -0,0 +1,157 @@
+package servlets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import graph.GraphContext;
+import graph.Topic;
+import graph.TopicHistory;
+import server.RequestParser.RequestInfo;
+
+/**
+ * The HistoryLoader class implements the Servlet interface and serves the recent values of a topic as JSON,
+ * straight from its {@link TopicHistory}.
+ * {@code GET /history?topic=A} returns every kept sample; {@code from} and {@code to} (milliseconds since the
+ * epoch, inclusive) narrow the range, and {@code buckets=N} downsamples it into N buckets of min, max and average, at most as many as the history
+ * keeps samples.
+ */
+public class HistoryLoader implements Servlet {
+	private final GraphContext context;
+
+	/**
+	 * Constructs a HistoryLoader for the topics of the default graph context.
+	 */
+	public HistoryLoader() {
+		this(GraphContext.getDefault());
+	}
+
+	/**
+	 * Constructs a HistoryLoader for the topics of the given graph context.
+	 *
+	 * @param context the graph context
+	 */
+	public HistoryLoader(GraphContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Handles the HTTP request by writing the requested samples or buckets of a topic as JSON.
+	 *
+	 * @param ri the request information
+	 * @param toClient the output stream to send the response to the client
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+		Map<String, String> params = ri.getParameters();
+		String name = params.get("topic");
+		if (name == null) {
+			send(toClient, "400 Bad Request", "{\"error\":\"missing topic\"}");
+			return;
+		}
+		name = name.toUpperCase();
+		Topic topic = context.getTopicManager().findTopic(name);
+		TopicHistory history = topic == null ? null : topic.getHistory();
+		if (history == null) {
+			StringBuilder error = new StringBuilder("{\"error\":");
+			Json.appendString(error, "no history for topic " + name);
+			send(toClient, "404 Not Found", error.append('}').toString());
+			return;
+		}
+
+		long from;
+		long to;
+		int buckets;
+		try {
+			from = params.containsKey("from") ? Long.parseLong(params.get("from")) : Long.MIN_VALUE;
+			to = params.containsKey("to") ? Long.parseLong(params.get("to")) : Long.MAX_VALUE;
+			buckets = params.containsKey("buckets") ? Integer.parseInt(params.get("buckets")) : 0;
+		} catch (NumberFormatException e) {
+			send(toClient, "400 Bad Request", "{\"error\":\"from, to and buckets must be integers\"}");
+			return;
+		}
+
+		StringBuilder json = new StringBuilder(64);
+		json.append("{\"topic\":");
+		Json.appendString(json, name);
+		json.append(',');
+		if (buckets <= 0) {
+			TopicHistory.Samples samples = history.range(from, to);
+			json.append("\"samples\":[");
+			for (int i = 0; i < samples.times.length; i++) {
+				if (i > 0) {
+					json.append(',');
+				}
+				json.append('[').append(samples.times[i]).append(',');
+				appendNumber(json, samples.values[i]);
+				json.append(']');
+			}
+			json.append("]}");
+			send(toClient, "200 OK", json.toString());
+			return;
+		}
+
+		json.append("\"buckets\":[");
+		if (from <= to) {
+			// The history narrows the range to the samples it holds, so the buckets cover real data
+			TopicHistory.Buckets b = history.downsample(from, to, buckets);
+			for (int i = 0; i < b.start.length; i++) {
+				if (i > 0) {
+					json.append(',');
+				}
+				json.append("{\"start\":").append(b.start[i]).append(",\"count\":").append(b.count[i]);
+				json.append(",\"min\":");
+				appendNumber(json, b.min[i]);
+				json.append(",\"max\":");
+				appendNumber(json, b.max[i]);
+				json.append(",\"avg\":");
+				appendNumber(json, b.avg[i]);
+				json.append('}');
+			}
+		}
+		json.append("]}");
+		send(toClient, "200 OK", json.toString());
+	}
+
+	/**
+	 * Appends a number as JSON, writing null for values JSON cannot represent.
+	 *
+	 * @param json the JSON being built
+	 * @param value the number
+	 */
+	private static void appendNumber(StringBuilder json, double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			json.append("null");
+		} else {
+			json.append(value);
+		}
+	}
+
+	/**
+	 * Sends a JSON response.
+	 *
+	 * @param toClient the output stream to send the response to the client
+	 * @param status the status code and reason
+	 * @param json the response body
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void send(OutputStream toClient, String status, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		String header = "HTTP/1.1 " + status + "\r\n" +
+				"Content-Type: application/json\r\n" +
+				"Content-Length: " + body.length + "\r\n" +
+				"\r\n";
+		toClient.write(header.getBytes(StandardCharsets.UTF_8));
+		toClient.write(body);
+		toClient.flush();
+	}
+
+	/**
+	 * Closes the servlet and releases any resources held by it.
+	 */
+	@Override
+	public void close() throws IOException {
+	}
+}
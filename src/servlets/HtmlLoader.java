@@ -2,13 +2,40 @@ package servlets;
 
 import server.RequestParser.RequestInfo;
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 
 /**
  * The HtmlLoader class implements the Servlet interface and handles loading and serving HTML files.
+ * Files are served from an in-memory cache holding their bytes and ready-made response headers. Every request
+ * checks the file's modification time and size, so a file rewritten on disk is read again on its next request.
+ * Each file carries a strong ETag derived from its content, and a request whose If-None-Match lists it is answered
+ * with 304 Not Modified and no body. Files too large to cache are streamed from disk with
+ * {@link FileChannel#transferTo}.
  */
 public class HtmlLoader implements Servlet {
+	// Files larger than this are streamed from disk instead of being kept in memory
+	private static final long MAX_CACHED_FILE = 1 << 20;
+	private static final byte[] NOT_FOUND = ("HTTP/1.1 404 Not Found\r\n" +
+			"Content-Type: text/plain\r\n" +
+			"Content-Length: 13\r\n" +
+			"\r\n" +
+			"404 Not Found").getBytes(StandardCharsets.ISO_8859_1);
+
 	// Class Variables
 	private final String dir_name;
+	private final Map<Path, CachedFile> cache = new ConcurrentHashMap<>();
 
 	/**
 	 * Constructs an HtmlLoader with the specified directory name.
@@ -28,83 +55,232 @@ public class HtmlLoader implements Servlet {
 	@Override
 	public void handle(RequestInfo ri, OutputStream outToClient) {
 		try {
-			PrintWriter out = new PrintWriter(outToClient, true);
-			boolean success = false;
-			StringBuilder htmlContent = new StringBuilder();
 			String htmlFileName;
 
 			// Handle GET requests
-			if ("GET".equals(ri.getHttpCommand())) {
-				String path = ri.getUri();
-				if (ri.getUriSegments().length >= 2) {
-					htmlFileName = ri.getUriSegments()[1]; // get the HTML file name we want to open
-				} else {
-					htmlFileName = "";
-				}
-
-				// Clean temp.html
-				if (htmlFileName.equals("temp.html")) {
-					String filePath = dir_name + "/temp.html";
-					try {
-						File file = new File(filePath);
-						FileWriter writer = new FileWriter(file);
-						writer.write(""); // Write an empty string to the file
-						writer.close();
-					} catch (IOException e) {
-						System.err.println("Error while cleaning the file: " + e.getMessage());
-					}
-				}
-
-				// Clean the graph from previous entries
-				if (htmlFileName.equals("graph.html")) {
-					String filePath = dir_name + "/graph.html";
-					try {
-						File file = new File(filePath);
-						FileWriter writer = new FileWriter(file);
-						writer.write(""); // Write an empty string to the file
-						writer.close();
-					} catch (IOException e) {
-						System.err.println("Error while cleaning the file: " + e.getMessage());
-					}
-				}
+			if (!"GET".equals(ri.getHttpCommand())) {
+				sendNotFound(outToClient);
+				return;
+			}
+			if (ri.getUriSegments().length >= 2) {
+				htmlFileName = ri.getUriSegments()[1]; // get the HTML file name we want to open
+			} else {
+				htmlFileName = "";
+			}
 
-				if (!htmlFileName.isEmpty()) {
-					// Read the HTML page we want to send
-					try (BufferedReader htmlReader = new BufferedReader(new FileReader(dir_name + "/" + htmlFileName))) {
-						String line;
-						while ((line = htmlReader.readLine()) != null) {
-							htmlContent.append(line).append("\n");
-						}
-						success = true;
-					}
+			// Clean temp.html and the graph from previous entries
+			if (htmlFileName.equals("temp.html") || htmlFileName.equals("graph.html")) {
+				String filePath = dir_name + "/" + htmlFileName;
+				try {
+					File file = new File(filePath);
+					FileWriter writer = new FileWriter(file);
+					writer.write(""); // Write an empty string to the file
+					writer.close();
+				} catch (IOException e) {
+					System.err.println("Error while cleaning the file: " + e.getMessage());
 				}
 			}
 
-			if (success) {
-				// Send the HTTP response
-				out.println("HTTP/1.1 200 OK");
-				out.println("Content-Type: text/html");
-				out.println("Content-Length: " + htmlContent.length());
-				out.println();
-				out.println(htmlContent.toString());
+			CachedFile file = htmlFileName.isEmpty() ? null : lookup(Path.of(dir_name, htmlFileName));
+			if (file == null) {
+				sendNotFound(outToClient);
+				return;
+			}
+			if (file.matches(ri.getHeaders() == null ? null : ri.getHeaders().get("If-None-Match"))) {
+				outToClient.write(file.notModified);
 			} else {
-				// Error
-				out.println("HTTP/1.1 404 Not Found");
-				out.println("Content-Type: text/plain");
-				out.println();
-				out.println("404 Not Found");
+				outToClient.write(file.header);
+				if (file.body != null) {
+					outToClient.write(file.body);
+				} else {
+					transfer(file.path, file.size, outToClient);
+				}
 			}
+			outToClient.flush();
 
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Returns the cache entry of a file, reading the file again if it changed since it was cached.
+	 *
+	 * @param path the path of the file
+	 * @return the entry, or null if the file does not exist or is not a regular file
+	 * @throws IOException if the file cannot be read
+	 */
+	private CachedFile lookup(Path path) throws IOException {
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			cache.remove(path);
+			return null;
+		}
+		if (!attributes.isRegularFile()) {
+			return null;
+		}
+		CachedFile cached = cache.get(path);
+		if (cached != null && cached.modified.equals(attributes.lastModifiedTime())
+				&& cached.attributeSize == attributes.size()) {
+			return cached;
+		}
+		cached = load(path, attributes);
+		cache.put(path, cached);
+		return cached;
+	}
+
+	/**
+	 * Reads a file and builds its cache entry. The ETag is computed from the content, so it only changes when the
+	 * bytes do; files too large to cache are read once for the ETag and then served from disk.
+	 *
+	 * @param path the path of the file
+	 * @param attributes the attributes read before the file
+	 * @return the entry
+	 * @throws IOException if the file cannot be read
+	 */
+	private static CachedFile load(Path path, BasicFileAttributes attributes) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] body = null;
+		long size;
+		if (attributes.size() <= MAX_CACHED_FILE) {
+			body = Files.readAllBytes(path);
+			crc.update(body);
+			size = body.length;
+		} else {
+			size = 0;
+			try (InputStream in = Files.newInputStream(path)) {
+				byte[] buffer = new byte[64 << 10];
+				int n;
+				while ((n = in.read(buffer)) > 0) {
+					crc.update(buffer, 0, n);
+					size += n;
+				}
+			}
+		}
+		String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(crc.getValue()) + "\"";
+		String header = "HTTP/1.1 200 OK\r\n" +
+				"Content-Type: " + contentType(path.getFileName().toString()) + "\r\n" +
+				"Content-Length: " + size + "\r\n" +
+				"ETag: " + etag + "\r\n" +
+				"Cache-Control: no-cache\r\n" +
+				"\r\n";
+		String notModified = "HTTP/1.1 304 Not Modified\r\n" +
+				"ETag: " + etag + "\r\n" +
+				"Cache-Control: no-cache\r\n" +
+				"\r\n";
+		// The attributes read before the content, so a write racing with the read is caught on the next request
+		return new CachedFile(path, attributes.lastModifiedTime(), attributes.size(), size, etag,
+				header.getBytes(StandardCharsets.ISO_8859_1), notModified.getBytes(StandardCharsets.ISO_8859_1), body);
+	}
+
+	/**
+	 * Streams a file that is too large to cache.
+	 *
+	 * @param path the path of the file
+	 * @param size the number of bytes announced in the headers
+	 * @param outToClient the output stream to send the response to the client
+	 * @throws IOException if the file cannot be read or sent
+	 */
+	private static void transfer(Path path, long size, OutputStream outToClient) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			WritableByteChannel target = Channels.newChannel(outToClient);
+			long position = 0;
+			while (position < size) {
+				long n = channel.transferTo(position, size - position, target);
+				if (n <= 0) {
+					throw new EOFException("File shrank while being sent: " + path);
+				}
+				position += n;
+			}
+		}
+	}
+
+	/**
+	 * Returns the content type of a file from its extension.
+	 *
+	 * @param fileName the name of the file
+	 * @return the content type
+	 */
+	private static String contentType(String fileName) {
+		String extension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
+		return switch (extension) {
+			case "html", "htm" -> "text/html; charset=utf-8";
+			case "css" -> "text/css; charset=utf-8";
+			case "js" -> "text/javascript; charset=utf-8";
+			case "json" -> "application/json";
+			case "txt" -> "text/plain; charset=utf-8";
+			case "svg" -> "image/svg+xml";
+			case "png" -> "image/png";
+			case "jpg", "jpeg" -> "image/jpeg";
+			case "ico" -> "image/x-icon";
+			default -> "application/octet-stream";
+		};
+	}
+
+	/**
+	 * Sends the 404 response.
+	 *
+	 * @param outToClient the output stream to send the response to the client
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void sendNotFound(OutputStream outToClient) throws IOException {
+		outToClient.write(NOT_FOUND);
+		outToClient.flush();
+	}
+
 	/**
 	 * Closes the servlet and releases any resources held by it.
 	 */
 	@Override
 	public void close() {
-		// Implement any necessary cleanup here
+		cache.clear();
+	}
+
+	/**
+	 * A cached file: the attributes it was read with, its ETag, its prebuilt response headers and, unless it is
+	 * too large, its content.
+	 */
+	private static final class CachedFile {
+		final Path path;
+		final FileTime modified;
+		final long attributeSize;
+		final long size;
+		final String etag;
+		final byte[] header;
+		final byte[] notModified;
+		final byte[] body;
+
+		CachedFile(Path path, FileTime modified, long attributeSize, long size, String etag, byte[] header,
+				byte[] notModified, byte[] body) {
+			this.path = path;
+			this.modified = modified;
+			this.attributeSize = attributeSize;
+			this.size = size;
+			this.etag = etag;
+			this.header = header;
+			this.notModified = notModified;
+			this.body = body;
+		}
+
+		/**
+		 * Checks whether an If-None-Match header names the current version of the file.
+		 *
+		 * @param ifNoneMatch the header value, or null if the request has none
+		 * @return true if the client's copy is current
+		 */
+		boolean matches(String ifNoneMatch) {
+			if (ifNoneMatch == null) {
+				return false;
+			}
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+				if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+					return true;
+				}
+			}
+			return false;
+		}
 	}
 }
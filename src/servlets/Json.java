@@ -0,0 +1,31 @@
+package servlets;
+
+/**
+ * The Json class holds the helpers the servlets share for writing JSON by hand.
+ */
+final class Json {
+
+	private Json() {
+	}
+
+	/**
+	 * Appends a string as a JSON string literal, escaping quotes, backslashes and control characters.
+	 *
+	 * @param json the JSON being built
+	 * @param s the string
+	 */
+	static void appendString(StringBuilder json, String s) {
+		json.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+}
@@ -9,8 +9,8 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import configs.Graph;
 import graph.Message;
+import graph.GraphContext;
 import graph.Topic;
-import graph.TopicManagerSingleton;
 import graph.TopicManagerSingleton.TopicManager;
 import server.RequestParser.RequestInfo;
 import views.HtmlGraphWriter;
@@ -19,8 +19,27 @@ import views.HtmlGraphWriter;
  * The TopicDisplayer class implements the Servlet interface and handles displaying topics and their messages.
  */
 public class TopicDisplayer implements Servlet {
+    // How long a publish waits for the queued agents to update the downstream topics before the table is shown
+    private static final long SETTLE_TIMEOUT_MILLIS = 1000;
 
-    private static Map<String, Double> topics;
+    private final GraphContext context;
+    private Map<String, Double> topics;
+
+    /**
+     * Constructs a TopicDisplayer for the topics of the default graph context.
+     */
+    public TopicDisplayer() {
+        this(GraphContext.getDefault());
+    }
+
+    /**
+     * Constructs a TopicDisplayer for the topics of the given graph context.
+     *
+     * @param context the graph context
+     */
+    public TopicDisplayer(GraphContext context) {
+        this.context = context;
+    }
 
     /**
      * Handles the HTTP request by processing the topic and message parameters and generating an HTML response.
@@ -38,7 +57,7 @@ public class TopicDisplayer implements Servlet {
         }
 
         topics = new ConcurrentHashMap<>();
-        TopicManager tm = TopicManagerSingleton.get();
+        TopicManager tm = context.getTopicManager();
 
         updateTable();
 
@@ -52,8 +71,13 @@ public class TopicDisplayer implements Servlet {
         // Check if topic exists in the topics map, and it's not an output of an agent and the message is double
         if (topics.containsKey(topicName)) {
             if (tm.getTopic(topicName).getPubs().isEmpty() && !Double.isNaN(m.asDouble)) {
-                tm.getTopic(topicName).publish(m);
+                context.publish(topicName, m);
                 topics.put(topicName, m.asDouble);
+                try {
+                    context.awaitSettled(SETTLE_TIMEOUT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
                 updateTable();
             }
             else{
@@ -92,9 +116,9 @@ public class TopicDisplayer implements Servlet {
             toClient.flush();
         }
         Graph graph = new Graph();
-        graph.createFromTopics();
+        graph.createFromTopics(context.getTopicManager());
 
-        if (HtmlGraphWriter.getGraphHTML(graph).equals("cycles")) {
+        if (HtmlGraphWriter.getGraphHTML(graph, context.getTopicManager()).equals("cycles")) {
             sendErrorResponse(toClient, 400, "ERROR!! the graph has cycles.");
             return;
         }
@@ -213,7 +237,7 @@ public class TopicDisplayer implements Servlet {
      * Updates the topics table with the latest messages.
      */
     public void updateTable() {
-        TopicManager tm = TopicManagerSingleton.get();
+        TopicManager tm = context.getTopicManager();
         if (!tm.getTopics().isEmpty()) {
             // Get all topics and their last messages
             for (Topic topic : tm.getTopics()) {
@@ -0,0 +1,448 @@
+package servlets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import graph.GraphContext;
+import graph.Message;
+import graph.Topic;
+import graph.TopicListener;
+import graph.TopicManagerSingleton.TopicManager;
+import server.RequestParser.RequestInfo;
+import server.ResponseFramer;
+import server.ResponseStream;
+
+/**
+ * The TopicStreamer class implements the Servlet interface and pushes topic values to the client as Server-Sent
+ * Events over a connection held open, so dashboards no longer have to poll.
+ * {@code GET /events} streams every topic; {@code topics=A,B} limits the stream to some topics, and
+ * {@code interval=N} sets the minimum time between two batches of events in milliseconds (100 by default).
+ * <p>
+ * Each client has its own pending map holding only the latest value of every topic. Publishing replaces the
+ * pending value and never waits for the client, so a burst, or a client reading slower than values change, is
+ * coalesced into one event per topic with the newest value, and stale values are dropped. Every event is a JSON
+ * object such as {@code {"topic":"A","value":5.0,"time":1700000000000}}; a comment is sent every 15 seconds while
+ * nothing changes, so closed connections are noticed.
+ * <p>
+ * When the server lets the response be {@link ResponseFramer#detach() detached}, the stream holds no thread:
+ * batches are sent by one shared scheduler thread, which holds back a client that has fallen behind so its values
+ * keep coalescing. Otherwise a stream keeps its connection thread for as long as it is open, so the number of such
+ * streams is capped and requests beyond the cap are answered with 503 Service Unavailable.
+ */
+public class TopicStreamer implements Servlet {
+	private static final long HEARTBEAT_MILLIS = 15_000;
+	private static final long DEFAULT_INTERVAL_MILLIS = 100;
+	// How long a detached stream whose client has fallen behind waits before trying again
+	private static final long BACKLOG_RETRY_MILLIS = 100;
+	private static final byte[] HEADER = ("HTTP/1.1 200 OK\r\n" +
+			"Content-Type: text/event-stream; charset=utf-8\r\n" +
+			"Cache-Control: no-cache\r\n" +
+			"\r\n" +
+			"retry: 2000\n\n").getBytes(StandardCharsets.UTF_8);
+	private static final byte[] HEARTBEAT = ": keep-alive\n\n".getBytes(StandardCharsets.UTF_8);
+
+	private final GraphContext context;
+	private final int maxThreadStreams;
+	private final AtomicInteger threadStreams = new AtomicInteger();
+	private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+	private final ScheduledThreadPoolExecutor scheduler;
+	private volatile boolean closed = false;
+
+	/**
+	 * Constructs a TopicStreamer for the topics of the default graph context, for a server giving every
+	 * connection its own thread.
+	 */
+	public TopicStreamer() {
+		this(GraphContext.getDefault());
+	}
+
+	/**
+	 * Constructs a TopicStreamer for the topics of the given graph context, for a server giving every connection
+	 * its own thread, so streams that hold a thread are not capped.
+	 *
+	 * @param context the graph context
+	 */
+	public TopicStreamer(GraphContext context) {
+		this(context, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Constructs a TopicStreamer for the topics of the given graph context.
+	 *
+	 * @param context the graph context
+	 * @param maxThreadStreams the number of streams that may hold a server thread at the same time; streams the
+	 *            server lets detach do not count
+	 */
+	public TopicStreamer(GraphContext context, int maxThreadStreams) {
+		this.context = context;
+		this.maxThreadStreams = maxThreadStreams;
+		this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "topic-streamer");
+			t.setDaemon(true);
+			return t;
+		});
+		scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		scheduler.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_MILLIS / 3, HEARTBEAT_MILLIS / 3,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Handles the HTTP request by streaming the current values of the requested topics and then every change,
+	 * until the client disconnects or the servlet is closed.
+	 *
+	 * @param ri the request information
+	 * @param toClient the output stream to send the response to the client
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+		Map<String, String> params = ri.getParameters();
+		long interval;
+		try {
+			interval = params.containsKey("interval")
+					? Math.max(0, Long.parseLong(params.get("interval"))) : DEFAULT_INTERVAL_MILLIS;
+		} catch (NumberFormatException e) {
+			sendError(toClient, "400 Bad Request", "interval must be an integer");
+			return;
+		}
+		Set<String> filter = null;
+		if (params.containsKey("topics")) {
+			filter = new HashSet<>();
+			for (String name : params.get("topics").split(",")) {
+				if (!name.isBlank()) {
+					filter.add(name.trim().toUpperCase());
+				}
+			}
+		}
+
+		ResponseStream stream = toClient instanceof ResponseFramer framer ? framer.detach() : null;
+		if (stream != null) {
+			new Subscription(filter, stream, interval).start(toClient);
+			return;
+		}
+		if (threadStreams.incrementAndGet() > maxThreadStreams) {
+			threadStreams.decrementAndGet();
+			sendError(toClient, "503 Service Unavailable", "Too many open event streams");
+			return;
+		}
+		Subscription subscription = new Subscription(filter, null, interval);
+		TopicManager tm = context.getTopicManager();
+		subscriptions.add(subscription);
+		tm.addListener(subscription);
+		try {
+			// Registered first, so a value published meanwhile is either in this snapshot or delivered after it
+			for (Topic topic : tm.getTopics()) {
+				subscription.published(topic, topic.getMsg());
+			}
+			toClient.write(HEADER);
+			toClient.flush();
+			long lastSent = 0;
+			while (!closed) {
+				Map<String, Message> batch = subscription.take(lastSent + interval);
+				if (closed) {
+					break;
+				}
+				toClient.write(batch == null ? HEARTBEAT : events(batch));
+				toClient.flush();
+				lastSent = System.currentTimeMillis();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			tm.removeListener(subscription);
+			subscriptions.remove(subscription);
+			threadStreams.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Sends a comment on the detached streams that have been quiet for the heartbeat period, and drops those whose
+	 * connection has closed. Runs on the scheduler thread.
+	 */
+	private void heartbeat() {
+		long now = System.currentTimeMillis();
+		for (Subscription subscription : subscriptions) {
+			if (subscription.stream != null) {
+				subscription.heartbeat(now);
+			}
+		}
+	}
+
+	/**
+	 * Builds the events of a batch.
+	 *
+	 * @param batch the latest message of every changed topic
+	 * @return the events, encoded
+	 */
+	private static byte[] events(Map<String, Message> batch) {
+		StringBuilder events = new StringBuilder(64 * batch.size());
+		for (Map.Entry<String, Message> entry : batch.entrySet()) {
+			appendEvent(events, entry.getKey(), entry.getValue());
+		}
+		return events.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Appends one event carrying the value of a topic.
+	 *
+	 * @param events the events being built
+	 * @param topic the name of the topic
+	 * @param msg the latest message of the topic
+	 */
+	private static void appendEvent(StringBuilder events, String topic, Message msg) {
+		events.append("data: {\"topic\":");
+		Json.appendString(events, topic);
+		events.append(",\"value\":");
+		if (Double.isNaN(msg.asDouble) || Double.isInfinite(msg.asDouble)) {
+			Json.appendString(events, msg.getText());
+		} else {
+			events.append(msg.asDouble);
+		}
+		events.append(",\"time\":").append(msg.getDate().getTime()).append("}\n\n");
+	}
+
+	/**
+	 * Sends an error response.
+	 *
+	 * @param toClient the output stream to send the response to the client
+	 * @param status the status code and reason
+	 * @param message the response body
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void sendError(OutputStream toClient, String status, String message) throws IOException {
+		byte[] body = message.getBytes(StandardCharsets.UTF_8);
+		String header = "HTTP/1.1 " + status + "\r\n" +
+				"Content-Type: text/plain\r\n" +
+				"Content-Length: " + body.length + "\r\n" +
+				"\r\n";
+		toClient.write(header.getBytes(StandardCharsets.UTF_8));
+		toClient.write(body);
+		toClient.flush();
+	}
+
+	/**
+	 * Closes the servlet, ending every open stream.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (Subscription subscription : subscriptions) {
+			subscription.wake();
+		}
+		// Ends the detached streams on the scheduler thread, which is the only one sending on them
+		try {
+			scheduler.execute(() -> {
+				for (Subscription subscription : subscriptions) {
+					if (subscription.stream != null) {
+						subscription.end();
+					}
+				}
+			});
+		} catch (RejectedExecutionException ignored) {
+			// Already closed
+		}
+		scheduler.shutdown();
+	}
+
+	/**
+	 * The pending values of one client: the latest message of every changed topic, in the order the topics first
+	 * changed since the last batch. A detached subscription schedules a send on the scheduler thread when a value
+	 * arrives; otherwise the client's own thread waits for values in {@link #take(long)}.
+	 */
+	private class Subscription implements TopicListener {
+		private final Set<String> filter;
+		private final ResponseStream stream;
+		private final long interval;
+		private Map<String, Message> pending = new LinkedHashMap<>();
+		// Whether a send is scheduled; guarded by this
+		private boolean scheduled = false;
+		private volatile long lastSent = 0;
+		// Whether the headers of a detached stream have been sent; heartbeats do not take the lock, so they wait for it
+		private volatile boolean started = false;
+
+		Subscription(Set<String> filter, ResponseStream stream, long interval) {
+			this.filter = filter;
+			this.stream = stream;
+			this.interval = interval;
+		}
+
+		/**
+		 * Starts a detached stream: registers for changes, sends the headers and schedules the current values.
+		 *
+		 * @param toClient the response, which sends the headers once flushed
+		 * @throws IOException if the headers cannot be sent
+		 */
+		void start(OutputStream toClient) throws IOException {
+			TopicManager tm = context.getTopicManager();
+			synchronized (this) {
+				// Sends are scheduled meanwhile but wait for this lock, so the headers always go first
+				subscriptions.add(this);
+				tm.addListener(this);
+				for (Topic topic : tm.getTopics()) {
+					published(topic, topic.getMsg());
+				}
+				try {
+					toClient.write(HEADER);
+					toClient.flush();
+				} catch (IOException e) {
+					// Heartbeats skip a stream that never started, so nothing else would drop it
+					end();
+					throw e;
+				}
+				lastSent = System.currentTimeMillis();
+				started = true;
+			}
+			if (closed) {
+				end();
+			}
+		}
+
+		/**
+		 * Records the new value of a topic, replacing a value the client has not received yet.
+		 *
+		 * @param topic the topic the message was published on
+		 * @param msg the published message
+		 */
+		@Override
+		public void published(Topic topic, Message msg) {
+			if (filter != null && !filter.contains(topic.name)) {
+				return;
+			}
+			synchronized (this) {
+				pending.put(topic.name, msg);
+				if (stream == null) {
+					notifyAll();
+				} else {
+					schedule(0);
+				}
+			}
+		}
+
+		/**
+		 * Schedules a send of the pending values, unless one is already scheduled, no sooner than the interval
+		 * after the last batch.
+		 *
+		 * @param minDelay the least time to wait, in milliseconds
+		 */
+		private synchronized void schedule(long minDelay) {
+			if (scheduled) {
+				return;
+			}
+			scheduled = true;
+			long delay = Math.max(minDelay, lastSent + interval - System.currentTimeMillis());
+			try {
+				scheduler.schedule(this::push, Math.max(0, delay), TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// The servlet is closed
+			}
+		}
+
+		/**
+		 * Sends the pending values of a detached stream, or holds them back while its client has fallen behind.
+		 * Runs on the scheduler thread.
+		 */
+		private void push() {
+			Map<String, Message> batch;
+			synchronized (this) {
+				scheduled = false;
+				if (closed || !stream.isOpen()) {
+					end();
+					return;
+				}
+				if (stream.isBacklogged()) {
+					// Keep coalescing until the client has read what it was sent
+					schedule(BACKLOG_RETRY_MILLIS);
+					return;
+				}
+				if (pending.isEmpty()) {
+					return;
+				}
+				batch = pending;
+				pending = new LinkedHashMap<>();
+			}
+			send(events(batch));
+		}
+
+		/**
+		 * Sends a comment on a detached stream that has been quiet for the heartbeat period, so a closed
+		 * connection is noticed. Runs on the scheduler thread.
+		 *
+		 * @param now the current time
+		 */
+		void heartbeat(long now) {
+			if (!started) {
+				return;
+			}
+			if (!stream.isOpen()) {
+				end();
+			} else if (now - lastSent >= HEARTBEAT_MILLIS && !stream.isBacklogged()) {
+				send(HEARTBEAT);
+			}
+		}
+
+		/**
+		 * Sends bytes on a detached stream, ending it if the connection has closed.
+		 *
+		 * @param bytes the bytes
+		 */
+		private void send(byte[] bytes) {
+			try {
+				stream.send(bytes);
+				lastSent = System.currentTimeMillis();
+			} catch (IOException e) {
+				end();
+			}
+		}
+
+		/**
+		 * Stops delivering values to a detached stream and ends its response.
+		 */
+		void end() {
+			context.getTopicManager().removeListener(this);
+			subscriptions.remove(this);
+			stream.close();
+		}
+
+		/**
+		 * Waits for changed values and takes them.
+		 *
+		 * @param notBefore the earliest time to return a batch, so a burst is gathered into one batch
+		 * @return the changed values, or null if nothing changed for the heartbeat period
+		 * @throws InterruptedException if the thread is interrupted while waiting
+		 */
+		synchronized Map<String, Message> take(long notBefore) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + HEARTBEAT_MILLIS;
+			while (!closed && pending.isEmpty()) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return null;
+				}
+				wait(remaining);
+			}
+			long delay;
+			while (!closed && (delay = notBefore - System.currentTimeMillis()) > 0) {
+				wait(delay);
+			}
+			Map<String, Message> batch = pending;
+			pending = new LinkedHashMap<>();
+			return batch;
+		}
+
+		/**
+		 * Wakes the client's thread, so it notices that the servlet was closed.
+		 */
+		synchronized void wake() {
+			notifyAll();
+		}
+	}
+}
@@ -4,6 +4,7 @@ import configs.Graph;
 import configs.Node;
 import graph.Topic;
 import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
 
 import java.io.*;
 import java.util.HashMap;
@@ -21,6 +22,17 @@ public class HtmlGraphWriter {
      * @return the HTML content as a string
      */
     public static String getGraphHTML(Graph graph) {
+        return getGraphHTML(graph, TopicManagerSingleton.get());
+    }
+
+    /**
+     * Generates an HTML representation of the given graph, reading the topic values from the given topic manager.
+     *
+     * @param graph the graph to generate HTML for
+     * @param topicManager the topics of the graph
+     * @return the HTML content as a string
+     */
+    public static String getGraphHTML(Graph graph, TopicManager topicManager) {
 
         StringBuilder contentBuilder = new StringBuilder();
         try (BufferedReader in = new BufferedReader(new FileReader("html_files/initialGraph.html"))) {
@@ -64,7 +76,7 @@ public class HtmlGraphWriter {
         for (Node n1 : graph) {
             if (n1.getName().startsWith("T")) {
                 String name = n1.getName().substring(1);
-                Topic t = TopicManagerSingleton.get().getTopic(name);
+                Topic t = topicManager.getTopic(name);
                 if (t.getMsg() != null) {
                     msgHtml.append(" [ '").append(n1.getName())
                             .append("', '").append(t.getMsg().asDouble)
@@ -0,0 +1,53 @@
+package views;
+
+import java.nio.file.Path;
+
+import configs.GenericConfig;
+import graph.GraphContext;
+import graph.Journal;
+import graph.Topic;
+
+/**
+ * The JournalReplay class feeds a recorded journal back through a graph at full speed, to reproduce an incident
+ * offline or to benchmark a configuration with real traffic.
+ * The rate and the final values are taken once the graph has settled, so in the asynchronous modes they include
+ * the processing of every replayed message.
+ * Usage: {@code java views.JournalReplay <config file> <journal dir>}
+ */
+public class JournalReplay {
+	// How long the graph may take to settle after the last record before the values are printed anyway
+	private static final long SETTLE_TIMEOUT_MILLIS = 60_000;
+
+	/**
+	 * Loads the configuration into a fresh graph, publishes every journal record on it and reports the rate
+	 * and the final value of every topic.
+	 *
+	 * @param args the configuration file and the journal directory
+	 * @throws Exception if the journal cannot be read
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Usage: java views.JournalReplay <config file> <journal dir>");
+			System.exit(2);
+		}
+		GraphContext context = new GraphContext();
+		GenericConfig conf = new GenericConfig();
+		conf.setContext(context);
+		conf.setConfFile(args[0]);
+		conf.create();
+
+		long start = System.nanoTime();
+		long count = Journal.replay(Path.of(args[1]), context);
+		if (!context.awaitSettled(SETTLE_TIMEOUT_MILLIS)) {
+			System.err.println("The graph did not settle within " + SETTLE_TIMEOUT_MILLIS + " ms; values may be partial");
+		}
+		long nanos = System.nanoTime() - start;
+
+		System.out.printf("Replayed %d messages in %.1f ms (%.0f messages/s)%n",
+				count, nanos / 1e6, count / Math.max(nanos / 1e9, 1e-9));
+		for (Topic topic : context.getTopicManager().getTopics()) {
+			System.out.println(topic.name + " = " + topic.getMsg().getText());
+		}
+		conf.close();
+	}
+}
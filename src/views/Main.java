@@ -1,24 +1,81 @@
 package views;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import graph.GraphContext;
+import graph.Journal;
+import graph.SyncPolicy;
 import server.HTTPServer;
 import server.MyHTTPServer;
+import server.NioHTTPServer;
 import servlets.TopicDisplayer;
+import servlets.TopicStreamer;
+import servlets.CheckpointSaver;
 import servlets.ConfLoader;
+import servlets.HistoryLoader;
 import servlets.HtmlLoader;
 
 public class Main { 
 	
 	public static void main(String[] args) throws Exception{ 
 		
-		HTTPServer server=new MyHTTPServer(8080,5); 
+		// -Dserver=nio serves connections from non-blocking event loops instead of one blocked thread each,
+		// -Dserver=virtual gives every connection its own virtual thread instead of a slot in a pool of 5
+		String mode=System.getProperty("server", "pool");
+		HTTPServer server=switch (mode) {
+			case "nio" -> new NioHTTPServer(8080,2,5);
+			case "virtual" -> MyHTTPServer.withVirtualThreads(8080);
+			default -> new MyHTTPServer(8080,5);
+		};
+		GraphContext context=GraphContext.getDefault();
+		// -Djournal=<dir> records every published message; -Djournal.sync=none|group|always
+		Journal journal=null;
+		if (System.getProperty("journal")!=null) {
+			journal=new Journal(Path.of(System.getProperty("journal")), SyncPolicy.fromKey(System.getProperty("journal.sync", "group")),
+					Journal.DEFAULT_FLUSH_MILLIS, Journal.DEFAULT_SEGMENT_SIZE);
+			context.setJournal(journal);
+		}
+		
+		ConfLoader loader=new ConfLoader(context);
+		// Bring back the last graph and its state before any request can reach it
+		Path checkpoint=Path.of("config_files/checkpoint.bin");
+		loader.enableCheckpoints(checkpoint, 30_000);
+		try {
+			if (loader.restore()) {
+				System.out.println("restored from checkpoint");
+			}
+		} catch (IOException e) {
+			// Keep a bad checkpoint for inspection and start with fresh state instead of not starting at all
+			Path aside=checkpoint.resolveSibling(checkpoint.getFileName()+".corrupt-"+System.currentTimeMillis());
+			System.err.println("Cannot restore "+checkpoint+", starting fresh: "+e.getMessage());
+			try {
+				Files.move(checkpoint, aside);
+				System.err.println("Moved the checkpoint to "+aside);
+			} catch (IOException moveError) {
+				System.err.println("Cannot move the checkpoint aside: "+moveError.getMessage());
+			}
+		}
 		
-		server.addServlet("GET", "/publish", new TopicDisplayer()); 
-		server.addServlet("POST", "/upload", new ConfLoader()); 
+		server.addServlet("GET", "/publish", new TopicDisplayer(context)); 
+		server.addServlet("POST", "/upload", loader); 
+		server.addServlet("POST", "/checkpoint", new CheckpointSaver(loader)); 
+		server.addServlet("GET", "/history", new HistoryLoader(context)); 
 		server.addServlet("GET", "/app/", new HtmlLoader("html_files")); 
+		// An event stream holds a pool thread on the blocking pool, so at most 2 of the 5 are given to streams;
+		// the NIO server detaches streams from its workers and virtual threads are not scarce
+		TopicStreamer streamer=new TopicStreamer(context, mode.equals("nio") || mode.equals("virtual") ? Integer.MAX_VALUE : 2);
+		server.addServlet("GET", "/events", streamer); 
 		
 		server.start(); 
 		System.in.read(); 
+		streamer.close(); 
 		server.close(); 
+		loader.close(); 
+		if (journal!=null) {
+			journal.close();
+		}
 		System.out.println("done");
 		} 
 	}
\ No newline at end of file